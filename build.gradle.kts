@@ -6,6 +6,7 @@ plugins {
     alias(libs.plugins.runPaper)
     alias(libs.plugins.paperweight) apply true
     alias(libs.plugins.shadow) apply true
+    alias(libs.plugins.jmh)
 
     `maven-publish`
 }
@@ -36,9 +37,15 @@ dependencies {
 
     compileOnly(libs.placeholder.api)
     compileOnly(libs.tab.api)
+    compileOnly(libs.luckperms.api)
     compileOnly(libs.packet.events)
     implementation(libs.entity.lib)
     testImplementation("org.junit.jupiter:junit-jupiter:5.7.1")
+    jmhImplementation(libs.paper.api)
+    jmhImplementation(libs.packet.events)
+    jmhImplementation(libs.placeholder.api)
+    jmhImplementation("org.mockito:mockito-core:5.11.0")
+    jmhImplementation("io.netty:netty-buffer:4.1.97.Final")
     compileOnly("net.skinsrestorer:skinsrestorer-api:15.5.1")
 }
 
@@ -97,6 +104,16 @@ java {
 
 sourceSets["main"].resources.srcDir("src/resources/")
 
+jmh {
+    // ./gradlew jmh -Pjmh.includes=ViewerIndex
+    findProperty("jmh.includes")?.let { includes.add(it.toString()) }
+    fork = 1
+    warmupIterations = 3
+    iterations = 5
+    // Reports allocation rate (gc.alloc.rate.norm) next to every result
+    profilers.add("gc")
+}
+
 publishing {
     repositories {
         maven {
@@ -0,0 +1,202 @@
+package com.mattmx.nametags;
+
+import com.github.retrooper.packetevents.event.PacketSendEvent;
+import com.github.retrooper.packetevents.manager.server.ServerVersion;
+import com.github.retrooper.packetevents.protocol.entity.data.EntityData;
+import com.github.retrooper.packetevents.protocol.entity.data.EntityDataTypes;
+import com.github.retrooper.packetevents.protocol.entity.type.EntityTypes;
+import com.github.retrooper.packetevents.protocol.packettype.PacketType;
+import com.github.retrooper.packetevents.protocol.player.ClientVersion;
+import com.github.retrooper.packetevents.protocol.player.User;
+import com.github.retrooper.packetevents.protocol.world.Location;
+import com.github.retrooper.packetevents.util.Vector3f;
+import com.github.retrooper.packetevents.wrapper.PacketWrapper;
+import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerEntityMetadata;
+import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerSpawnEntity;
+import com.mattmx.nametags.config.TextFormatter;
+import com.mattmx.nametags.config.TextTemplate;
+import com.mattmx.nametags.entity.LegacyTranslation;
+import com.mattmx.nametags.entity.NameTagEntity;
+import com.mattmx.nametags.entity.NameTagEntityManager;
+import com.mattmx.nametags.entity.Stubs;
+import com.mattmx.nametags.entity.trait.TextTemplateTrait;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import net.kyori.adventure.text.Component;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Cost of the outgoing packet listener for the packets it sees most, metadata and spawns.
+ * <p>
+ * The events are mocks around real encoded buffers, so each result carries a small constant overhead
+ * from the mocked getters. Compare the variants against each other rather than reading them as absolutes.
+ * <p>
+ * The tag has a relational template, so its metadata gets the viewer's text swapped in, and the legacy
+ * variant also has its translation offset. Re-encoding a rewritten packet is left to PacketEvents and
+ * isn't measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PacketListenerBenchmark {
+    private static final int OWNER_ID = 1;
+    private static final int OTHER_ID = 3;
+
+    private OutgoingPacketListener listener;
+    private ByteBuf otherMetadataBuffer;
+    private ByteBuf tagMetadataBuffer;
+    private ByteBuf otherSpawnBuffer;
+    private PacketSendEvent otherMetadata;
+    private PacketSendEvent tagMetadata;
+    private PacketSendEvent tagMetadataLegacy;
+    private PacketSendEvent otherSpawn;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Stubs.init();
+
+        final NameTagEntityManager manager = new NameTagEntityManager();
+        final Player owner = Stubs.player("Steve", OWNER_ID);
+        final NameTagEntity tag = Stubs.tag(manager, owner);
+        final int tagEntityId = tag.getPassenger().getEntityId();
+
+        final Component relationalText = Component.text("[Ally] Steve");
+        tag.getTraits()
+            .getOrAddTrait(TextTemplateTrait.class, () -> new RenderedTextTrait(relationalText))
+            .getRenderer(TextTemplate.compile(List.of("%rel_factions_relation% %player_name%"), TextFormatter.MINI_MESSAGE, true));
+
+        final NameTags plugin = mock(NameTags.class);
+        when(plugin.getEntityManager()).thenReturn(manager);
+        listener = new OutgoingPacketListener(plugin);
+
+        final User user = user(ClientVersion.V_1_21);
+        final User legacyUser = user(ClientVersion.V_1_20);
+
+        otherMetadataBuffer = metadata(OTHER_ID);
+        tagMetadataBuffer = tagMetadata(tagEntityId);
+        otherSpawnBuffer = spawn(OTHER_ID);
+
+        otherMetadata = event(user, PacketType.Play.Server.ENTITY_METADATA, otherMetadataBuffer);
+        tagMetadata = event(user, PacketType.Play.Server.ENTITY_METADATA, tagMetadataBuffer);
+        tagMetadataLegacy = event(legacyUser, PacketType.Play.Server.ENTITY_METADATA, tagMetadataBuffer);
+        otherSpawn = event(user, PacketType.Play.Server.SPAWN_ENTITY, otherSpawnBuffer);
+    }
+
+    @Benchmark
+    public void metadata_otherEntity() {
+        otherMetadataBuffer.readerIndex(0);
+        listener.onPacketSend(otherMetadata);
+    }
+
+    @Benchmark
+    public void metadata_tagEntity() {
+        tagMetadataBuffer.readerIndex(0);
+        listener.onPacketSend(tagMetadata);
+    }
+
+    @Benchmark
+    public void metadata_tagEntityLegacy() {
+        tagMetadataBuffer.readerIndex(0);
+        listener.onPacketSend(tagMetadataLegacy);
+    }
+
+    @Benchmark
+    public void spawn_otherEntity() {
+        otherSpawnBuffer.readerIndex(0);
+        listener.onPacketSend(otherSpawn);
+    }
+
+    private static ByteBuf metadata(int entityId) {
+        final ByteBuf buffer = Unpooled.buffer();
+        final PacketWrapper<?> wrapper = PacketWrapper.createUniversalPacketWrapper(buffer);
+
+        wrapper.writeVarInt(entityId);
+        // Index 0xFF ends the metadata list
+        wrapper.writeByte(0xFF);
+        return buffer;
+    }
+
+    /**
+     * An update to the tag's text and translation, as sent after the spawn.
+     */
+    private static ByteBuf tagMetadata(int entityId) {
+        final ByteBuf buffer = Unpooled.buffer();
+        final WrapperPlayServerEntityMetadata packet = new WrapperPlayServerEntityMetadata(entityId, List.of(
+            new EntityData(LegacyTranslation.INDEX, EntityDataTypes.VECTOR3F, new Vector3f(0f, 0.2f, 0f)),
+            new EntityData(OutgoingPacketListener.TEXT_DISPLAY_TEXT_INDEX, EntityDataTypes.ADV_COMPONENT, Component.text(" Steve"))
+        ));
+
+        packet.setBuffer(buffer);
+        packet.write();
+        return buffer;
+    }
+
+    private static ByteBuf spawn(int entityId) {
+        final ByteBuf buffer = Unpooled.buffer();
+        final WrapperPlayServerSpawnEntity packet = new WrapperPlayServerSpawnEntity(
+            entityId,
+            Optional.of(UUID.randomUUID()),
+            EntityTypes.ZOMBIE,
+            new Location(0, 64, 0, 0f, 0f),
+            0f,
+            0,
+            null
+        );
+
+        packet.setBuffer(buffer);
+        packet.write();
+        return buffer;
+    }
+
+    private static User user(ClientVersion version) {
+        final User user = mock(User.class);
+
+        when(user.getClientVersion()).thenReturn(version);
+        when(user.getUUID()).thenReturn(UUID.randomUUID());
+        return user;
+    }
+
+    private static PacketSendEvent event(User user, PacketType.Play.Server type, ByteBuf buffer) {
+        final PacketSendEvent event = mock(PacketSendEvent.class);
+
+        when(event.getPacketType()).thenReturn(type);
+        when(event.getPacketId()).thenReturn(type.getId(ClientVersion.V_1_21));
+        when(event.getByteBuf()).thenReturn(buffer);
+        when(event.getUser()).thenReturn(user);
+        when(event.getServerVersion()).thenReturn(ServerVersion.V_1_21);
+        when(event.getClientVersion()).thenReturn(ClientVersion.V_1_21);
+        return event;
+    }
+
+    /**
+     * Hands every viewer the same already rendered text, rendering it for real needs both players on a server.
+     */
+    private static final class RenderedTextTrait extends TextTemplateTrait {
+        private final Component text;
+
+        private RenderedTextTrait(Component text) {
+            this.text = text;
+        }
+
+        @Override
+        public Component getRelationalText(UUID viewer) {
+            return text;
+        }
+    }
+}
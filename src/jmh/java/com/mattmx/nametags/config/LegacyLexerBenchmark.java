@@ -0,0 +1,75 @@
+package com.mattmx.nametags.config;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.minimessage.MiniMessage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The single pass lexer against the regex and replace chain it replaced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LegacyLexerBenchmark {
+
+    @Param({
+        "&x&f&f&5&5&5&5[Admin] &f&lSteve &7| &a20❤",
+        "&#ff5555[Admin] <white><b>Steve</b> &7| <green>20❤"
+    })
+    public String line;
+
+    @Benchmark
+    public Component legacy() {
+        return LegacyLexer.legacy(line);
+    }
+
+    @Benchmark
+    public Component previousLegacy() {
+        return TextFormatter.getLegacySerializer().deserialize(TextFormatter.convertLegacyHex(line.replace('§', '&')));
+    }
+
+    @Benchmark
+    public Component smart() {
+        return LegacyLexer.smart(line);
+    }
+
+    @Benchmark
+    public Component previousSmart() {
+        String mutableLine = TextFormatter.convertLegacyHex(line.replace('§', '&'));
+
+        mutableLine = TextFormatter.convertLegacyHexToMiniMessage(mutableLine);
+        mutableLine = mutableLine
+            .replace("&0", "<black>")
+            .replace("&1", "<dark_blue>")
+            .replace("&2", "<dark_green>")
+            .replace("&3", "<dark_aqua>")
+            .replace("&4", "<dark_red>")
+            .replace("&5", "<dark_purple>")
+            .replace("&6", "<gold>")
+            .replace("&7", "<gray>")
+            .replace("&8", "<dark_gray>")
+            .replace("&9", "<blue>")
+            .replace("&a", "<green>")
+            .replace("&b", "<aqua>")
+            .replace("&c", "<red>")
+            .replace("&d", "<light_purple>")
+            .replace("&e", "<yellow>")
+            .replace("&f", "<white>")
+            .replace("&k", "<obf>")
+            .replace("&l", "<b>")
+            .replace("&m", "<st>")
+            .replace("&n", "<u>")
+            .replace("&o", "<i>")
+            .replace("&r", "<reset>");
+
+        return MiniMessage.miniMessage().deserialize(mutableLine);
+    }
+}
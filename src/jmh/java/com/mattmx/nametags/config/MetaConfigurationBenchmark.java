@@ -0,0 +1,100 @@
+package com.mattmx.nametags.config;
+
+import com.github.retrooper.packetevents.util.Vector3f;
+import com.mattmx.nametags.entity.NameTagEntity;
+import com.mattmx.nametags.entity.NameTagEntityManager;
+import com.mattmx.nametags.entity.Stubs;
+import me.tofaa.entitylib.meta.display.AbstractDisplayMeta;
+import me.tofaa.entitylib.meta.display.TextDisplayMeta;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of applying a group's style and text to a tag's meta on refresh.
+ * <p>
+ * The {@code unchanged} variants are the common case where nothing differs from the last refresh,
+ * the {@code changed} ones flip between two groups so every setter runs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MetaConfigurationBenchmark {
+    private TagStyle first;
+    private TagStyle second;
+    private TextTemplate firstText;
+    private TextTemplate secondText;
+    private TextDisplayMeta meta;
+    private NameTagEntity tag;
+    private Player self;
+    private boolean flip;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Stubs.init();
+
+        first = style(0x40000000, AbstractDisplayMeta.BillboardConstraints.CENTER, 0.2f, 50f);
+        second = style(0x40ff0000, AbstractDisplayMeta.BillboardConstraints.VERTICAL, 0.3f, 40f);
+        firstText = TextTemplate.compile(List.of("<red>[Admin]", "<white>%player_name%"), TextFormatter.MINI_MESSAGE, true);
+        secondText = TextTemplate.compile(List.of("<gray>[Member]", "<white>%player_name%"), TextFormatter.MINI_MESSAGE, true);
+
+        self = Stubs.player("Steve", 1);
+        tag = Stubs.tag(new NameTagEntityManager(), self);
+        meta = Stubs.meta(3);
+
+        TextDisplayMetaConfiguration.applyMeta(first, meta);
+        TextDisplayMetaConfiguration.applyTextMeta(firstText, tag, self);
+    }
+
+    @Benchmark
+    public TextDisplayMeta applyMeta_unchanged() {
+        TextDisplayMetaConfiguration.applyMeta(first, meta);
+        return meta;
+    }
+
+    @Benchmark
+    public TextDisplayMeta applyMeta_changed() {
+        TextDisplayMetaConfiguration.applyMeta((flip = !flip) ? second : first, meta);
+        return meta;
+    }
+
+    @Benchmark
+    public boolean applyTextMeta_unchanged() {
+        return TextDisplayMetaConfiguration.applyTextMeta(firstText, tag, self);
+    }
+
+    @Benchmark
+    public boolean applyTextMeta_changed() {
+        return TextDisplayMetaConfiguration.applyTextMeta((flip = !flip) ? secondText : firstText, tag, self);
+    }
+
+    private static TagStyle style(int background, AbstractDisplayMeta.BillboardConstraints billboard, float gap, float range) {
+        return new TagStyle(
+            background,
+            billboard,
+            false,
+            200,
+            (byte) -1,
+            true,
+            new Vector3f(0f, gap, 0f),
+            gap,
+            new Vector3f(1f, 1f, 1f),
+            -1,
+            0f,
+            0f,
+            range,
+            -1L,
+            -1L,
+            null
+        );
+    }
+}
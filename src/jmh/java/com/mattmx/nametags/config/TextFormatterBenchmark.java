@@ -0,0 +1,65 @@
+package com.mattmx.nametags.config;
+
+import net.kyori.adventure.text.Component;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning one resolved line into a component with each formatter.
+ * <p>
+ * {@code uncached} is a cache miss, i.e a placeholder resolved to a value not seen before, the cache is
+ * cleared before each call. {@code cached} is what every other refresh pays.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TextFormatterBenchmark {
+
+    @Param({"MINI_MESSAGE", "LEGACY", "SMART"})
+    public TextFormatter formatter;
+
+    private String line;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        // A typical rank prefix and name line in the syntax each formatter is meant for
+        line = switch (formatter) {
+            case MINI_MESSAGE -> "<gradient:#ff5555:#ffaa00>[Admin]</gradient> <white><b>Steve</b></white> <gray>| <green>20❤";
+            case LEGACY -> "&x&f&f&5&5&5&5[Admin] &f&lSteve &7| &a20❤";
+            case SMART -> "&#ff5555[Admin] <white><b>Steve</b> &7| <green>20❤";
+        };
+
+        formatter.format(line);
+    }
+
+    /**
+     * Empties the formatter's cache before every call, so the line is parsed each time.
+     */
+    @State(Scope.Thread)
+    public static class Cleared {
+
+        @Setup(Level.Invocation)
+        public void clear(TextFormatterBenchmark benchmark) {
+            benchmark.formatter.getCache().clear();
+        }
+    }
+
+    @Benchmark
+    public Component uncached(Cleared cleared) {
+        return formatter.format(line);
+    }
+
+    @Benchmark
+    public Component cached() {
+        return formatter.format(line);
+    }
+}
@@ -0,0 +1,59 @@
+package com.mattmx.nametags.entity;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of resolving a tag from an entity id, which the packet listener does for every entity packet.
+ * <p>
+ * Most packets are for entities without a tag, so {@code miss} matters as much as the hits.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ManagerLookupBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int entities;
+
+    private NameTagEntityManager manager;
+    private int[] tagEntityIds;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Stubs.init();
+        manager = new NameTagEntityManager();
+        tagEntityIds = new int[entities];
+
+        for (int id = 0; id < entities; id++) {
+            tagEntityIds[id] = Stubs.tag(manager, Stubs.entity(id))
+                .getPassenger()
+                .getEntityId();
+        }
+    }
+
+    @Benchmark
+    public NameTagEntity byEntityId() {
+        return manager.getNameTagEntityById(next++ % entities);
+    }
+
+    @Benchmark
+    public NameTagEntity byTagEntityId() {
+        return manager.getNameTagEntityByTagEntityId(tagEntityIds[next++ % entities]);
+    }
+
+    @Benchmark
+    public NameTagEntity miss() {
+        return manager.getNameTagEntityByTagEntityId(-1 - next++ % entities);
+    }
+}
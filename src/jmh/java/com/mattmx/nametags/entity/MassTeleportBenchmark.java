@@ -0,0 +1,139 @@
+package com.mattmx.nametags.entity;
+
+import io.github.retrooper.packetevents.util.SpigotConversionUtil;
+import org.bukkit.Location;
+import org.bukkit.entity.Entity;
+import org.bukkit.util.BoundingBox;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of re-syncing every tag's position after all players are teleported at once, e.g to a spawn
+ * or arena, and of the per-tick snapshot when nobody moved.
+ * <p>
+ * {@code previous} is how tag positions were derived before snapshots, for comparison.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MassTeleportBenchmark {
+    private static final double HEIGHT = 1.8;
+
+    @Param({"100", "1000"})
+    public int players;
+
+    private Moving[] positions;
+    private Entity[] entities;
+    private Location[] scratch;
+    private EntitySnapshot[] snapshots;
+    private int teleports;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        positions = new Moving[players];
+        entities = new Entity[players];
+        scratch = new Location[players];
+        snapshots = new EntitySnapshot[players];
+
+        for (int i = 0; i < players; i++) {
+            positions[i] = new Moving(i, 64.0, i);
+            entities[i] = positions[i].entity();
+            scratch[i] = new Location(null, 0.0, 0.0, 0.0);
+            snapshots[i] = EntitySnapshot.capture(entities[i], scratch[i], null, true);
+        }
+    }
+
+    @Benchmark
+    public void previous(Blackhole blackhole) {
+        teleportAll();
+
+        for (final Entity entity : entities) {
+            final com.github.retrooper.packetevents.protocol.world.Location location =
+                SpigotConversionUtil.fromBukkitLocation(
+                    entity.getLocation()
+                        .clone()
+                        .add(0.0, entity.getBoundingBox().getMaxY(), 0.0)
+                );
+
+            location.setYaw(0f);
+            location.setPitch(0f);
+            blackhole.consume(location);
+        }
+    }
+
+    @Benchmark
+    public void snapshot(Blackhole blackhole) {
+        teleportAll();
+
+        for (int i = 0; i < players; i++) {
+            snapshots[i] = EntitySnapshot.capture(entities[i], scratch[i], snapshots[i], false);
+            blackhole.consume(snapshots[i].toLocation());
+        }
+    }
+
+    @Benchmark
+    public void snapshotUnchanged(Blackhole blackhole) {
+        for (int i = 0; i < players; i++) {
+            snapshots[i] = EntitySnapshot.capture(entities[i], scratch[i], snapshots[i], false);
+            blackhole.consume(snapshots[i]);
+        }
+    }
+
+    private void teleportAll() {
+        final double offset = (teleports++ & 1) * 1000.0;
+
+        for (int i = 0; i < players; i++) {
+            positions[i].x = offset + i;
+        }
+    }
+
+    /**
+     * An entity whose position can be changed from the benchmark, answering only what positioning reads.
+     */
+    private static final class Moving {
+        private double x;
+        private final double y;
+        private final double z;
+
+        private Moving(double x, double y, double z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        private Entity entity() {
+            return (Entity) Proxy.newProxyInstance(Entity.class.getClassLoader(), new Class<?>[]{Entity.class}, this::invoke);
+        }
+
+        private Object invoke(Object self, Method method, Object[] args) {
+            return switch (method.getName()) {
+                case "getLocation" -> args == null ? new Location(null, x, y, z) : into((Location) args[0]);
+                case "getHeight" -> HEIGHT;
+                case "getBoundingBox" -> new BoundingBox(x - 0.3, y, z - 0.3, x + 0.3, y + HEIGHT, z + 0.3);
+                case "isInvisible" -> false;
+                case "hashCode" -> System.identityHashCode(self);
+                case "equals" -> self == args[0];
+                default -> null;
+            };
+        }
+
+        private Location into(Location location) {
+            location.setX(x);
+            location.setY(y);
+            location.setZ(z);
+            return location;
+        }
+    }
+}
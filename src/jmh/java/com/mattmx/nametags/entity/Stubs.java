@@ -0,0 +1,161 @@
+package com.mattmx.nametags.entity;
+
+import com.github.retrooper.packetevents.PacketEvents;
+import com.github.retrooper.packetevents.PacketEventsAPI;
+import com.github.retrooper.packetevents.manager.server.ServerVersion;
+import com.mattmx.nametags.NameTags;
+import com.mattmx.nametags.config.NameTagsConfig;
+import com.mattmx.nametags.hook.PlaceholderResolver;
+import io.github.retrooper.packetevents.impl.netty.NettyManagerImpl;
+import me.tofaa.entitylib.APIConfig;
+import me.tofaa.entitylib.EntityLib;
+import me.tofaa.entitylib.EntityLibAPI;
+import me.tofaa.entitylib.Platform;
+import me.tofaa.entitylib.meta.Metadata;
+import me.tofaa.entitylib.meta.display.TextDisplayMeta;
+import net.kyori.adventure.text.Component;
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.PluginManager;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Just enough of Bukkit, PacketEvents and EntityLib for the plugin's hot paths to run outside a server.
+ * <p>
+ * Mockito is used for the API singletons and for classes Bukkit and PacketEvents don't let us build.
+ * Bukkit interfaces are plain proxies, and tags are real ones created through the manager.
+ */
+public final class Stubs {
+    // Tag display entities are numbered after any owner id the benchmarks use so the two never overlap
+    private static final AtomicInteger tagEntityIds = new AtomicInteger(1_000_000);
+    private static boolean initialized = false;
+
+    private Stubs() {
+    }
+
+    public static synchronized void init() {
+        if (initialized) return;
+
+        // No PlaceholderAPI, placeholders resolve to themselves
+        final PluginManager plugins = proxy(PluginManager.class, Map.of());
+        Bukkit.setServer(proxy(Server.class, Map.of(
+            "getPluginManager", plugins,
+            "getLogger", Logger.getLogger("stub")
+        )));
+
+        final PacketEventsAPI<?> packetEvents = mock(PacketEventsAPI.class, RETURNS_DEEP_STUBS);
+        when(packetEvents.getServerManager().getVersion()).thenReturn(ServerVersion.V_1_21);
+        when(packetEvents.getNettyManager()).thenReturn(new NettyManagerImpl());
+        PacketEvents.setAPI(packetEvents);
+
+        final EntityLibAPI<?> entityLib = mock(EntityLibAPI.class, RETURNS_DEEP_STUBS);
+        when(entityLib.getPacketEvents()).thenReturn(packetEvents);
+
+        final Platform<?> platform = mock(Platform.class, RETURNS_DEEP_STUBS);
+        when(platform.getAPI()).thenAnswer((invocation) -> entityLib);
+        when(platform.getEntityUuidProvider().provide(any())).thenAnswer((invocation) -> UUID.randomUUID());
+        when(platform.getEntityIdProvider().provide(any(), any())).thenAnswer((invocation) -> tagEntityIds.getAndIncrement());
+        EntityLib.init(platform, new APIConfig(packetEvents));
+
+        // Tags read the plugin for settings and placeholders, which resolve inline without PlaceholderAPI
+        final NameTags plugin = mock(NameTags.class);
+        final NameTagsConfig settings = mock(NameTagsConfig.class);
+        when(plugin.getSettings()).thenReturn(settings);
+        when(plugin.getPlaceholderResolver()).thenReturn(new PlaceholderResolver(plugin));
+        setInstance(plugin);
+
+        initialized = true;
+    }
+
+    /**
+     * A display meta that records changes without trying to send them anywhere.
+     */
+    public static @NotNull TextDisplayMeta meta(int entityId) {
+        final Metadata metadata = new Metadata(entityId);
+        metadata.setNotifyAboutChanges(false);
+
+        return new TextDisplayMeta(entityId, metadata);
+    }
+
+    public static @NotNull Player player(@NotNull String name, int entityId) {
+        return proxy(Player.class, Map.of(
+            "getName", name,
+            "name", Component.text(name),
+            "getUniqueId", UUID.nameUUIDFromBytes(name.getBytes()),
+            "getEntityId", entityId
+        ));
+    }
+
+    public static @NotNull Entity entity(int entityId) {
+        return proxy(Entity.class, Map.of(
+            "name", Component.text("Entity"),
+            "getUniqueId", new UUID(0L, entityId),
+            "getEntityId", entityId
+        ));
+    }
+
+    /**
+     * A real tag created through the manager, so it is indexed the same way as on a server. Its display
+     * entity gets the next id after {@code 1_000_000}, read it from {@link NameTagEntity#getPassenger()}.
+     */
+    public static @NotNull NameTagEntity tag(@NotNull NameTagEntityManager manager, @NotNull Entity owner) {
+        return manager.getOrCreateNameTagEntity(owner);
+    }
+
+    private static void setInstance(@NotNull NameTags plugin) {
+        try {
+            final Field instance = NameTags.class.getDeclaredField("instance");
+            instance.setAccessible(true);
+            instance.set(null, plugin);
+        } catch (ReflectiveOperationException exception) {
+            throw new IllegalStateException("Failed to stub the plugin instance", exception);
+        }
+    }
+
+    /**
+     * @param type    the interface to implement
+     * @param returns fixed return values by method name, anything else returns a default
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> @NotNull T proxy(@NotNull Class<T> type, @NotNull Map<String, Object> returns) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (self, method, args) -> {
+            final Object value = returns.get(method.getName());
+
+            if (value != null) return value;
+
+            return switch (method.getName()) {
+                case "hashCode" -> System.identityHashCode(self);
+                case "equals" -> self == args[0];
+                case "toString" -> type.getSimpleName() + "Stub";
+                default -> defaultValue(method.getReturnType());
+            };
+        });
+    }
+
+    private static Object defaultValue(@NotNull Class<?> type) {
+        if (type == String.class) return "stub";
+        if (!type.isPrimitive() || type == void.class) return null;
+        if (type == boolean.class) return false;
+        if (type == char.class) return '\0';
+        if (type == float.class) return 0f;
+        if (type == double.class) return 0d;
+        if (type == long.class) return 0L;
+        if (type == byte.class) return (byte) 0;
+        if (type == short.class) return (short) 0;
+        return 0;
+    }
+}
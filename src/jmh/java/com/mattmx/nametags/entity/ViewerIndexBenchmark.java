@@ -0,0 +1,95 @@
+package com.mattmx.nametags.entity;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of handling one join/quit as the number of online players grows.
+ * <p>
+ * Each player can see at most {@link #TRACKED} others, like on a real server where the tracking
+ * range bounds how many tags a client has spawned. {@code scanAll} is the old approach of walking
+ * every tag, {@code viewerIndex} only touches the tags the joining player sees.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ViewerIndexBenchmark {
+    private static final int TRACKED = 48;
+
+    @Param({"10", "100", "500", "1000"})
+    public int players;
+
+    private final List<FakeTag> tags = new ArrayList<>();
+    private final List<UUID> uuids = new ArrayList<>();
+    private ViewerIndex<FakeTag> index;
+    private UUID joining;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        index = new ViewerIndex<>();
+
+        for (int i = 0; i < players; i++) {
+            uuids.add(UUID.randomUUID());
+            tags.add(new FakeTag());
+        }
+
+        for (int viewer = 0; viewer < players; viewer++) {
+            for (int offset = 1; offset <= Math.min(TRACKED, players - 1); offset++) {
+                final FakeTag tag = tags.get((viewer + offset) % players);
+
+                tag.viewers.add(uuids.get(viewer));
+                index.add(uuids.get(viewer), tag);
+            }
+        }
+
+        joining = UUID.randomUUID();
+    }
+
+    @Benchmark
+    public void scanAll(Blackhole blackhole) {
+        join();
+
+        for (final FakeTag tag : tags) {
+            blackhole.consume(tag.viewers.remove(joining));
+        }
+    }
+
+    @Benchmark
+    public void viewerIndex(Blackhole blackhole) {
+        join();
+
+        for (final FakeTag tag : index.removeViewer(joining)) {
+            blackhole.consume(tag.viewers.remove(joining));
+        }
+    }
+
+    private void join() {
+        // The joining player starts tracking the same number of tags regardless of player count
+        for (int i = 0; i < Math.min(TRACKED, players); i++) {
+            final FakeTag tag = tags.get(next++ % players);
+
+            tag.viewers.add(joining);
+            index.add(joining, tag);
+        }
+    }
+
+    private static final class FakeTag {
+        private final Set<UUID> viewers = ConcurrentHashMap.newKeySet();
+    }
+}
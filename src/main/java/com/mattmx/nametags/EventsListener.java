@@ -1,18 +1,23 @@
 package com.mattmx.nametags;
 
+import com.destroystokyo.paper.event.entity.EntityRemoveFromWorldEvent;
 import com.mattmx.nametags.entity.NameTagEntity;
 import com.mattmx.nametags.entity.trait.SneakTrait;
-import org.bukkit.Bukkit;
+import org.bukkit.entity.Entity;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.entity.EntityDismountEvent;
+import org.bukkit.event.entity.EntityMountEvent;
 import org.bukkit.event.entity.PlayerDeathEvent;
 import org.bukkit.event.player.PlayerChangedWorldEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.event.player.PlayerRespawnEvent;
+import org.bukkit.event.player.PlayerTeleportEvent;
 import org.bukkit.event.player.PlayerToggleSneakEvent;
-import org.bukkit.scheduler.BukkitRunnable;
 import org.jetbrains.annotations.NotNull;
 
 public class EventsListener implements Listener {
@@ -31,53 +36,10 @@ public class EventsListener implements Listener {
         NameTagEntity nameTagEntity = plugin.getEntityManager()
             .getOrCreateNameTagEntity(player);
         nameTagEntity.updateVisibility();
+        plugin.getEntityManager().updatePosition(player, player.getLocation());
         
         // Delay the nametag handling to ensure all entities are properly initialized
-        new BukkitRunnable() {
-            @Override
-            public void run() {
-                // First handle the joining player's visibility settings
-                if (plugin.getToggleCommand().isNameTagsHidden(player)) {
-                    // Remove them as a viewer from all nametag entities
-                    for (NameTagEntity entity : plugin.getEntityManager().getAllEntities()) {
-                        if (!entity.getBukkitEntity().getUniqueId().equals(player.getUniqueId())) {
-                            entity.getPassenger().removeViewer(player.getUniqueId());
-                            entity.updateVisibility();
-                            entity.sendPassengerPacket(player);
-                        }
-                    }
-                }
-                
-                // Then handle other players' visibility of the new player
-                for (Player onlinePlayer : Bukkit.getOnlinePlayers()) {
-                    if (!onlinePlayer.getUniqueId().equals(player.getUniqueId())) {
-                        if (plugin.getToggleCommand().isNameTagsHidden(onlinePlayer)) {
-                            nameTagEntity.getPassenger().removeViewer(onlinePlayer.getUniqueId());
-                        } else {
-                            nameTagEntity.getPassenger().addViewer(onlinePlayer.getUniqueId());
-                        }
-                        nameTagEntity.updateVisibility();
-                        nameTagEntity.sendPassengerPacket(onlinePlayer);
-                    }
-                }
-            }
-        }.runTaskLater(plugin, 10L); // 10 tick delay (0.5 seconds)
-        
-        // Run another check after a longer delay to ensure everything is set correctly
-        new BukkitRunnable() {
-            @Override
-            public void run() {
-                if (plugin.getToggleCommand().isNameTagsHidden(player)) {
-                    for (NameTagEntity entity : plugin.getEntityManager().getAllEntities()) {
-                        if (!entity.getBukkitEntity().getUniqueId().equals(player.getUniqueId())) {
-                            entity.getPassenger().removeViewer(player.getUniqueId());
-                            entity.updateVisibility();
-                            entity.sendPassengerPacket(player);
-                        }
-                    }
-                }
-            }
-        }.runTaskLater(plugin, 20L); // 20 tick delay (1 second)
+        plugin.getJoinSyncQueue().enqueueJoin(player);
     }
 
 //    @EventHandler
@@ -92,14 +54,43 @@ public class EventsListener implements Listener {
 //        }
 //    }
 
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onMount(@NotNull EntityMountEvent event) {
+        // Rebuilt from the passengers packet that follows
+        plugin.getEntityManager().removeLastSentPassengersCache(event.getMount().getEntityId());
+        markPassengersChanged(event.getMount());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onDismount(@NotNull EntityDismountEvent event) {
+        plugin.getEntityManager().removeLastSentPassengersCache(event.getDismounted().getEntityId());
+        markPassengersChanged(event.getDismounted());
+    }
+
+    private void markPassengersChanged(@NotNull Entity vehicle) {
+        NameTagEntity nameTagEntity = plugin.getEntityManager()
+            .getNameTagEntity(vehicle);
+
+        if (nameTagEntity != null) {
+            nameTagEntity.markPassengersChanged();
+        }
+    }
+
+    @EventHandler
+    public void onEntityRemoveFromWorld(@NotNull EntityRemoveFromWorldEvent event) {
+        plugin.getEntityManager().removeLastSentPassengersCache(event.getEntity().getEntityId());
+    }
+
     @EventHandler
     public void onPlayerQuit(@NotNull PlayerQuitEvent event) {
         plugin.getEntityManager().removeLastSentPassengersCache(event.getPlayer().getEntityId());
+        plugin.getGroupCache().invalidate(event.getPlayer().getUniqueId());
+        plugin.getEntityManager().removePosition(event.getPlayer());
+        plugin.getPacketBatcher().discard(event.getPlayer().getUniqueId());
+        plugin.getPlaceholderResolver().forget(event.getPlayer().getUniqueId());
 
-        // Remove as a viewer from all entities
-        for (final NameTagEntity entity : plugin.getEntityManager().getAllEntities()) {
-            entity.getPassenger().removeViewer(event.getPlayer().getUniqueId());
-        }
+        // Remove as a viewer from every entity they could see
+        plugin.getEntityManager().removeViewerFromAll(event.getPlayer().getUniqueId());
 
         NameTagEntity entity = plugin.getEntityManager()
             .removeEntity(event.getPlayer());
@@ -109,9 +100,24 @@ public class EventsListener implements Listener {
         }
     }
 
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerMove(@NotNull PlayerMoveEvent event) {
+        // Cheap enough for every move, it only does work when the player crosses into a new cell
+        plugin.getEntityManager().updatePosition(event.getPlayer(), event.getTo());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerTeleport(@NotNull PlayerTeleportEvent event) {
+        plugin.getEntityManager().updatePosition(event.getPlayer(), event.getTo());
+    }
+
     @EventHandler
     public void onPlayerChangeWorld(@NotNull PlayerChangedWorldEvent event) {
         Player player = event.getPlayer();
+
+        // Permissions can be per-world so the player's group may have changed
+        plugin.getGroupCache().invalidate(player.getUniqueId());
+
         NameTagEntity nameTagEntity = plugin.getEntityManager()
             .getNameTagEntity(player);
 
@@ -120,9 +126,9 @@ public class EventsListener implements Listener {
         nameTagEntity.updateLocation();
 
         // Only show self nametag if enabled in config and player hasn't disabled nametags
-        if (plugin.getConfig().getBoolean("show-self", false) && !plugin.getToggleCommand().isNameTagsHidden(player)) {
-            nameTagEntity.getPassenger().removeViewer(nameTagEntity.getBukkitEntity().getUniqueId());
-            nameTagEntity.getPassenger().addViewer(nameTagEntity.getBukkitEntity().getUniqueId());
+        if (plugin.getSettings().showSelf() && !plugin.getToggleCommand().isNameTagsHidden(player)) {
+            nameTagEntity.removeViewer(nameTagEntity.getBukkitEntity().getUniqueId());
+            nameTagEntity.addViewer(nameTagEntity.getBukkitEntity().getUniqueId());
             nameTagEntity.sendPassengerPacket(player);
         }
     }
@@ -135,40 +141,43 @@ public class EventsListener implements Listener {
 
         if (nameTagEntity == null) return;
 
-        if (plugin.getConfig().getBoolean("show-self", false)) {
+        if (plugin.getSettings().showSelf()) {
             // Hides/removes tag on death/respawn screen
-            nameTagEntity.getPassenger().removeViewer(nameTagEntity.getBukkitEntity().getUniqueId());
+            nameTagEntity.removeViewer(nameTagEntity.getBukkitEntity().getUniqueId());
         }
     }
 
     @EventHandler
     public void onPlayerRespawn(@NotNull PlayerRespawnEvent event) {
+        plugin.getEntityManager().updatePosition(event.getPlayer(), event.getRespawnLocation());
+
         NameTagEntity nameTagEntity = plugin.getEntityManager()
                 .getNameTagEntity(event.getPlayer());
 
         if (nameTagEntity == null) return;
 
-        if (plugin.getConfig().getBoolean("show-self", false)) {
+        if (plugin.getSettings().showSelf()) {
 
             String respawnWorld = event.getRespawnLocation().getWorld().getName();
             String playerWorld = event.getPlayer().getWorld().getName();
             // Ignoring since same action is handled at EventListener#onPlayerChangeWorld if player was killed in another world.
             if (!playerWorld.equalsIgnoreCase(respawnWorld)) return;
 
-            Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+            // Next tick on the player's own thread, once they are actually at the respawn location
+            event.getPlayer().getScheduler().run(plugin, (task) -> {
                 // Update entity location.
                 nameTagEntity.updateLocation();
                 // Add player back as viewer
-                nameTagEntity.getPassenger().addViewer(nameTagEntity.getBukkitEntity().getUniqueId());
+                nameTagEntity.addViewer(nameTagEntity.getBukkitEntity().getUniqueId());
                 // Send passenger packet
                 nameTagEntity.sendPassengerPacket(event.getPlayer());
-            });
+            }, null);
         }
     }
 
     @EventHandler(ignoreCancelled = true)
     public void onPlayerSneak(@NotNull PlayerToggleSneakEvent event) {
-        if (!plugin.getConfig().getBoolean("sneak.enabled")) {
+        if (!plugin.getSettings().sneakEnabled()) {
             return;
         }
 
@@ -0,0 +1,215 @@
+package com.mattmx.nametags;
+
+import com.mattmx.nametags.entity.NameTagEntity;
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Spreads the tag syncing that follows player joins over as many ticks as it takes.
+ * <p>
+ * A join is looked at {@value #JOIN_DELAY_TICKS} ticks later, once entity tracking has caught up, and
+ * checked once more after the same delay. Each check only queues viewer/tag pairs that need their
+ * passengers re-sent, and a pair already waiting is not queued twice, so a join storm after a restart
+ * collapses into one sync per pair. Every tick the queue works for at most the configured budget and
+ * carries the rest over to the next tick.
+ * <p>
+ * The queues are only touched on the global region thread, which is the main thread on Paper. Joins
+ * fire on the joining player's thread, which on Folia is their region's, so they are handed over to it.
+ */
+public class JoinSyncQueue {
+    private static final long JOIN_DELAY_TICKS = 10L;
+
+    private final @NotNull NameTags plugin;
+    private final @NotNull Queue<Join> joins = new ArrayDeque<>();
+    private final @NotNull Set<Sync> syncs = new LinkedHashSet<>();
+    private @Nullable ScheduledTask task = null;
+    private long currentTick = 0L;
+    private long budgetNanos = TimeUnit.MILLISECONDS.toNanos(2L);
+    private volatile int pendingJoins = 0;
+    private volatile int pendingSyncs = 0;
+    private volatile long merged = 0L;
+    private volatile long processed = 0L;
+
+    public JoinSyncQueue(@NotNull NameTags plugin) {
+        this.plugin = plugin;
+    }
+
+    public void start() {
+        if (this.task != null) return;
+
+        this.task = Bukkit.getGlobalRegionScheduler()
+            .runAtFixedRate(plugin, (task) -> tick(), 1L, 1L);
+    }
+
+    public void stop() {
+        if (this.task != null) {
+            this.task.cancel();
+            this.task = null;
+        }
+
+        joins.clear();
+        syncs.clear();
+        updateDepth();
+    }
+
+    /**
+     * @param budgetMillis how long the queue may work each tick, it always handles at least one entry
+     */
+    public void setBudget(double budgetMillis) {
+        this.budgetNanos = (long) (Math.max(0.0, budgetMillis) * 1_000_000L);
+    }
+
+    /**
+     * Queues the syncing for a player that just joined.
+     *
+     * @param player the player
+     */
+    public void enqueueJoin(@NotNull Player player) {
+        final UUID uuid = player.getUniqueId();
+
+        Bukkit.getGlobalRegionScheduler().execute(plugin, () -> {
+            joins.add(new Join(uuid, currentTick + JOIN_DELAY_TICKS, false));
+            updateDepth();
+        });
+    }
+
+    private void tick() {
+        final long tick = this.currentTick++;
+
+        if (joins.isEmpty() && syncs.isEmpty()) return;
+
+        final long start = System.nanoTime();
+        final long budget = this.budgetNanos;
+        boolean worked = false;
+
+        // Joins are queued with the same delay, so they are already in due order
+        Join join;
+        while ((join = joins.peek()) != null && join.dueTick() <= tick) {
+            if (worked && System.nanoTime() - start >= budget) break;
+
+            joins.poll();
+            expand(join);
+            worked = true;
+        }
+
+        final Iterator<Sync> iterator = syncs.iterator();
+        while (iterator.hasNext()) {
+            if (worked && System.nanoTime() - start >= budget) break;
+
+            final Sync sync = iterator.next();
+            iterator.remove();
+
+            try {
+                sync(sync);
+            } catch (Throwable throwable) {
+                plugin.getLogger().log(Level.WARNING, "Failed to sync name tag", throwable);
+            }
+            processed++;
+            worked = true;
+        }
+
+        updateDepth();
+    }
+
+    private void expand(@NotNull Join join) {
+        final Player player = Bukkit.getPlayer(join.player());
+
+        if (player == null) return;
+
+        // The joining player's own view, if they have tags toggled off
+        if (plugin.getToggleCommand().isNameTagsHidden(player)) {
+            for (final NameTagEntity tag : plugin.getEntityManager().getViewedBy(join.player())) {
+                if (tag.getBukkitEntity().getUniqueId().equals(join.player())) continue;
+
+                queue(new Sync(tag, join.player()));
+            }
+        }
+
+        if (join.recheck()) return;
+
+        // The players already viewing the new tag
+        final NameTagEntity own = plugin.getEntityManager().getNameTagEntity(player);
+
+        if (own != null) {
+            for (final UUID viewer : own.getPassenger().getViewers()) {
+                if (viewer.equals(join.player())) continue;
+
+                queue(new Sync(own, viewer));
+            }
+        }
+
+        // Run another check later to ensure everything is set correctly
+        joins.add(new Join(join.player(), currentTick + JOIN_DELAY_TICKS, true));
+    }
+
+    private void queue(@NotNull Sync sync) {
+        if (!syncs.add(sync)) {
+            merged++;
+        }
+    }
+
+    private void sync(@NotNull Sync sync) {
+        final NameTagEntity tag = sync.tag();
+        final Player viewer = Bukkit.getPlayer(sync.viewer());
+
+        if (viewer == null) return;
+
+        // The tag was removed or replaced while this was waiting
+        if (plugin.getEntityManager().getNameTagEntity(tag.getBukkitEntity()) != tag) return;
+
+        if (plugin.getToggleCommand().isNameTagsHidden(sync.viewer())) {
+            tag.removeViewer(sync.viewer());
+        }
+
+        tag.updateVisibility();
+        tag.sendPassengerPacket(viewer);
+    }
+
+    private void updateDepth() {
+        this.pendingJoins = joins.size();
+        this.pendingSyncs = syncs.size();
+    }
+
+    /**
+     * @return joins waiting to be checked, including the second checks
+     */
+    public int getPendingJoins() {
+        return pendingJoins;
+    }
+
+    /**
+     * @return viewer/tag pairs waiting to be synced
+     */
+    public int getPendingSyncs() {
+        return pendingSyncs;
+    }
+
+    /**
+     * @return syncs that were dropped because the same pair was already waiting
+     */
+    public long getMergedCount() {
+        return merged;
+    }
+
+    public long getProcessedCount() {
+        return processed;
+    }
+
+    private record Join(@NotNull UUID player, long dueTick, boolean recheck) {
+    }
+
+    private record Sync(@NotNull NameTagEntity tag, @NotNull UUID viewer) {
+    }
+}
@@ -2,25 +2,35 @@ package com.mattmx.nametags;
 
 import com.github.retrooper.packetevents.PacketEvents;
 import com.github.retrooper.packetevents.PacketEventsAPI;
+import com.mattmx.nametags.commands.NameTagsStatsCommand;
 import com.mattmx.nametags.commands.NameTagsToggleCommand;
 import com.mattmx.nametags.config.ConfigDefaultsListener;
+import com.mattmx.nametags.config.GroupCache;
+import com.mattmx.nametags.config.GroupStyle;
+import com.mattmx.nametags.config.NameTagsConfig;
 import com.mattmx.nametags.config.TextFormatter;
+import com.mattmx.nametags.data.TogglePreferenceStore;
 import com.mattmx.nametags.entity.NameTagEntityManager;
+import com.mattmx.nametags.entity.PacketBatcher;
+import com.mattmx.nametags.entity.trait.RefreshScheduler;
+import com.mattmx.nametags.hook.LuckPermsHook;
 import com.mattmx.nametags.hook.NeznamyTABHook;
+import com.mattmx.nametags.hook.PlaceholderResolver;
 import com.mattmx.nametags.hook.SkinRestorerHook;
+import com.mattmx.nametags.stats.Metrics;
 import me.tofaa.entitylib.APIConfig;
 import me.tofaa.entitylib.EntityLib;
 import me.tofaa.entitylib.spigot.SpigotEntityLibPlatform;
 import org.bukkit.Bukkit;
 import org.bukkit.Color;
 import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.Player;
 import org.bukkit.permissions.Permission;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
-import java.io.IOException;
 import java.util.HashMap;
 import java.util.Objects;
 
@@ -29,17 +39,25 @@ public class NameTags extends JavaPlugin {
     public static final char LEGACY_CHAR = (char)167;
     private static @Nullable NameTags instance;
 
-    private final HashMap<String, ConfigurationSection> groups = new HashMap<>();
-    private @NotNull TextFormatter formatter = TextFormatter.MINI_MESSAGE;
+    private final GroupCache groupCache = new GroupCache(this);
+    private volatile @Nullable NameTagsConfig settings = null;
     private NameTagEntityManager entityManager;
+    private final RefreshScheduler refreshScheduler = new RefreshScheduler(this);
+    private final PacketBatcher packetBatcher = new PacketBatcher(this);
+    private final JoinSyncQueue joinSyncQueue = new JoinSyncQueue(this);
+    private final PlaceholderResolver placeholderResolver = new PlaceholderResolver(this);
     private final EventsListener eventsListener = new EventsListener(this);
     private final OutgoingPacketListener packetListener = new OutgoingPacketListener(this);
+    private TogglePreferenceStore togglePreferences;
     private NameTagsToggleCommand toggleCommand;
 
     @Override
     public void onEnable() {
         instance = this;
         entityManager = new NameTagEntityManager();
+        refreshScheduler.start();
+        packetBatcher.start();
+        joinSyncQueue.start();
         saveDefaultConfig();
         
         // Save default messages.yml if it doesn't exist
@@ -47,22 +65,22 @@ public class NameTags extends JavaPlugin {
             saveResource("messages.yml", false);
         }
         
-        // Create data.yml if it doesn't exist
-        File dataFile = new File(getDataFolder(), "data.yml");
-        if (!dataFile.exists()) {
-            try {
-                if (!getDataFolder().exists()) {
-                    getDataFolder().mkdirs();
+        togglePreferences = new TogglePreferenceStore(this);
+        togglePreferences.start();
+        togglePreferences.loadAsync()
+            .thenRun(() -> {
+                // Players that joined before loading finished, e.g after /reload. Each on their own thread
+                for (Player player : Bukkit.getOnlinePlayers()) {
+                    if (!togglePreferences.isHidden(player.getUniqueId())) continue;
+
+                    player.getScheduler().run(this, (task) -> toggleCommand.applyNameTagsHidden(player, true), null);
                 }
-                dataFile.createNewFile();
-            } catch (IOException e) {
-                getLogger().severe("Could not create data.yml!");
-                e.printStackTrace();
-            }
-        }
+            });
+
+        // Compiles the first settings snapshot
+        reloadConfig();
 
-        ConfigurationSection defaults = getConfig().getConfigurationSection("defaults");
-        if (defaults != null && defaults.getBoolean("enabled")) {
+        if (getSettings().enabled()) {
             Bukkit.getPluginManager().registerEvents(new ConfigDefaultsListener(this), this);
         }
 
@@ -78,16 +96,32 @@ public class NameTags extends JavaPlugin {
 
         NeznamyTABHook.inject(this);
         SkinRestorerHook.inject(this);
+        LuckPermsHook.inject(this);
 
         Bukkit.getPluginManager().registerEvents(eventsListener, this);
 
         // Register commands
         Objects.requireNonNull(Bukkit.getPluginCommand("nametags-reload")).setExecutor(new NameTagsCommand(this));
+        NameTagsStatsCommand statsCommand = new NameTagsStatsCommand(this);
+        Objects.requireNonNull(Bukkit.getPluginCommand("nametags-stats")).setExecutor(statsCommand);
+        Objects.requireNonNull(Bukkit.getPluginCommand("nametags-stats")).setTabCompleter(statsCommand);
         toggleCommand = new NameTagsToggleCommand(this);
         Objects.requireNonNull(Bukkit.getPluginCommand("nametags-toggle")).setExecutor(toggleCommand);
         Objects.requireNonNull(Bukkit.getPluginCommand("nametags-toggle")).setTabCompleter(toggleCommand);
     }
 
+    @Override
+    public void onDisable() {
+        refreshScheduler.stop();
+        packetBatcher.stop();
+        joinSyncQueue.stop();
+        placeholderResolver.stop();
+
+        if (togglePreferences != null) {
+            togglePreferences.stop();
+        }
+    }
+
     @Override
     public void reloadConfig() {
         super.reloadConfig();
@@ -98,32 +132,31 @@ public class NameTags extends JavaPlugin {
             saveResource("messages.yml", false);
         }
 
-        String textFormatterIdentifier = getConfig().getString("formatter", "minimessage");
-        formatter = TextFormatter.getById(textFormatterIdentifier)
-            .orElse(TextFormatter.MINI_MESSAGE);
+        NameTagsConfig previous = this.settings;
+        NameTagsConfig compiled = NameTagsConfig.compile(getConfig());
 
-        getLogger().info("Using " + formatter.name() + " as text formatter.");
+        getLogger().info("Using " + compiled.formatter().name() + " as text formatter.");
 
-        for (String permissionNode : groups.keySet()) {
-            Bukkit.getPluginManager().removePermission(permissionNode);
+        if (previous != null) {
+            for (GroupStyle group : previous.groups()) {
+                Bukkit.getPluginManager().removePermission(group.permission());
+            }
         }
-        groups.clear();
-
-        ConfigurationSection groups = getConfig().getConfigurationSection("groups");
 
-        if (groups == null) return;
-
-        for (String key : groups.getKeys(false)) {
-            String permissionNode = "nametags.groups." + key;
-            ConfigurationSection sub = groups.getConfigurationSection(key);
-
-            if (sub == null) continue;
+        for (GroupStyle group : compiled.groups()) {
+            Bukkit.getPluginManager().addPermission(new Permission(group.permission()));
+        }
 
-            this.groups.put(permissionNode, sub);
+        // Publish the new snapshot in one go, readers either see all of the old config or all of the new one
+        this.settings = compiled;
+        groupCache.invalidateAll();
+        Metrics.setEnabled(compiled.statsEnabled());
+        refreshScheduler.setMsptBudget(compiled.msptBudget());
+        refreshScheduler.setRelationalBudget(compiled.relationalBudget());
+        placeholderResolver.setDeadline(compiled.placeholderDeadline());
+        placeholderResolver.setInlineExpansions(compiled.mainThreadPlaceholders());
+        joinSyncQueue.setBudget(compiled.joinSyncBudget());
 
-            Bukkit.getPluginManager().addPermission(new Permission(permissionNode));
-        }
-        
         if (toggleCommand != null) {
             toggleCommand.reloadData();
         }
@@ -133,14 +166,62 @@ public class NameTags extends JavaPlugin {
         return this.entityManager;
     }
 
+    public @NotNull RefreshScheduler getRefreshScheduler() {
+        return this.refreshScheduler;
+    }
+
+    public @NotNull NameTagsConfig getSettings() {
+        return Objects.requireNonNull(this.settings, "NameTags config has not been loaded yet!");
+    }
+
+    /**
+     * Builds a new map on every call, the compiled groups are in {@link #getSettings()}.
+     *
+     * @return the raw section of each group, keyed by its permission node
+     * @deprecated use {@link NameTagsConfig#groups()} from {@link #getSettings()}
+     */
+    @Deprecated
     public HashMap<String, ConfigurationSection> getGroups() {
+        HashMap<String, ConfigurationSection> groups = new HashMap<>();
+        ConfigurationSection section = getConfig().getConfigurationSection("groups");
+
+        if (section == null) return groups;
+
+        for (GroupStyle group : getSettings().groups()) {
+            ConfigurationSection sub = section.getConfigurationSection(group.name());
+
+            if (sub != null) {
+                groups.put(group.permission(), sub);
+            }
+        }
+
         return groups;
     }
 
+    public @NotNull PacketBatcher getPacketBatcher() {
+        return this.packetBatcher;
+    }
+
+    public @NotNull GroupCache getGroupCache() {
+        return this.groupCache;
+    }
+
+    public @NotNull PlaceholderResolver getPlaceholderResolver() {
+        return this.placeholderResolver;
+    }
+
+    public @NotNull JoinSyncQueue getJoinSyncQueue() {
+        return this.joinSyncQueue;
+    }
+
     public @NotNull TextFormatter getFormatter() {
-        return this.formatter;
+        return getSettings().formatter();
     }
     
+    public @NotNull TogglePreferenceStore getTogglePreferences() {
+        return this.togglePreferences;
+    }
+
     public NameTagsToggleCommand getToggleCommand() {
         return toggleCommand;
     }
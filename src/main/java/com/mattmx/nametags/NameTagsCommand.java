@@ -44,7 +44,7 @@ public class NameTagsCommand implements CommandExecutor {
             // Add existing viewers
             if (tag != null) {
                 for (final UUID viewer : tag.getPassenger().getViewers()) {
-                    newTag.getPassenger().addViewer(viewer);
+                    newTag.addViewer(viewer);
 
                     // Send passenger packet
                     Player playerViewer = Bukkit.getPlayer(viewer);
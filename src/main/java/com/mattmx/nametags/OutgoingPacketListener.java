@@ -1,37 +1,34 @@
 package com.mattmx.nametags;
 
-import com.github.retrooper.packetevents.PacketEvents;
 import com.github.retrooper.packetevents.event.PacketListenerAbstract;
 import com.github.retrooper.packetevents.event.PacketListenerPriority;
 import com.github.retrooper.packetevents.event.PacketReceiveEvent;
 import com.github.retrooper.packetevents.event.PacketSendEvent;
-import com.github.retrooper.packetevents.manager.server.ServerVersion;
-import com.github.retrooper.packetevents.manager.server.VersionComparison;
+import com.github.retrooper.packetevents.netty.buffer.ByteBufHelper;
 import com.github.retrooper.packetevents.protocol.entity.data.EntityData;
 import com.github.retrooper.packetevents.protocol.entity.data.EntityDataTypes;
 import com.github.retrooper.packetevents.protocol.entity.type.EntityTypes;
 import com.github.retrooper.packetevents.protocol.packettype.PacketType;
-import com.github.retrooper.packetevents.protocol.player.ClientVersion;
 import com.github.retrooper.packetevents.protocol.potion.PotionTypes;
-import com.github.retrooper.packetevents.util.Vector3f;
+import com.github.retrooper.packetevents.wrapper.PacketWrapper;
 import com.github.retrooper.packetevents.wrapper.play.server.*;
+import com.mattmx.nametags.entity.LegacyTranslation;
 import com.mattmx.nametags.entity.NameTagEntity;
-import com.mattmx.nametags.hook.PapiHook;
+import com.mattmx.nametags.entity.trait.TextTemplateTrait;
+import com.mattmx.nametags.stats.Metrics;
+import com.mattmx.nametags.stats.Stage;
 import me.clip.placeholderapi.PlaceholderAPI;
 import net.kyori.adventure.text.Component;
-import net.kyori.adventure.text.serializer.legacy.LegacyComponentSerializer;
-import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.Arrays;
+import java.util.List;
 import java.util.UUID;
 
 public class OutgoingPacketListener extends PacketListenerAbstract {
-    private static final byte TEXT_DISPLAY_TEXT_INDEX = 23;
-    private static final byte PRE_1_20_2_TRANSLATION_INDEX = 10;
-    private static final byte POST_1_20_2_TRANSLATION_INDEX = 11;
-    private static final Vector3f PRE_1_20_2_TRANSLATION_OFFSET = new Vector3f(0f, 0.4f, 0f);
+    public static final byte TEXT_DISPLAY_TEXT_INDEX = 23;
     private final @NotNull NameTags plugin;
 
     public OutgoingPacketListener(@NotNull NameTags plugin) {
@@ -41,6 +38,21 @@ public class OutgoingPacketListener extends PacketListenerAbstract {
 
     @Override
     public void onPacketSend(@NotNull PacketSendEvent event) {
+        final long start = Metrics.start();
+        try {
+            handle(event);
+        } finally {
+            if (start != 0L) {
+                final Stage stage = stageOf(event);
+
+                if (stage != null) {
+                    Metrics.record(stage, start);
+                }
+            }
+        }
+    }
+
+    private void handle(@NotNull PacketSendEvent event) {
         switch (event.getPacketType()) {
             case PacketType.Play.Server.SPAWN_ENTITY -> {
                 WrapperPlayServerSpawnEntity packet = new WrapperPlayServerSpawnEntity(event);
@@ -51,106 +63,83 @@ public class OutgoingPacketListener extends PacketListenerAbstract {
 
                 if (nameTagEntity == null) return;
 
+                // Viewers with name tags toggled off don't get other players' tags
+                final UUID viewer = event.getUser().getUUID();
+                final boolean hidden = packet.getEntityType() == EntityTypes.PLAYER
+                    && viewer != null
+                    && plugin.getTogglePreferences().isHidden(viewer);
+
                 // Add passenger and send to player after
                 event.getTasksAfterSend().add(() -> {
                     // To avoid name tag moving when being added
                     nameTagEntity.updateLocation();
 
-                    nameTagEntity.getPassenger().removeViewer(event.getUser());
-                    nameTagEntity.getPassenger().addViewer(event.getUser());
+                    nameTagEntity.removeViewer(event.getUser());
 
-                    event.getUser().sendPacket(nameTagEntity.getPassengersPacket());
-                });
+                    if (hidden) return;
 
-                // Check if the spawned entity is a player
-                if (packet.getEntityType() == EntityTypes.PLAYER) {
-                    // Get the viewer (the player receiving the packet)
-                    if (event.getPlayer() instanceof Player viewer) {
-                        // If the viewer has nametags disabled
-                        if (plugin.getToggleCommand().isNameTagsHidden(viewer)) {
-                            // Schedule a task to hide the nametag after the entity is spawned
-                            Bukkit.getScheduler().runTask(plugin, () -> {
-                                // Find the spawned player by entity ID
-                                for (Player onlinePlayer : Bukkit.getOnlinePlayers()) {
-                                    if (onlinePlayer.getEntityId() == packet.getEntityId()) {
-                                        // Get and update the nametag entity
-                                        NameTagEntity targetNameTag = plugin.getEntityManager().getNameTagEntity(onlinePlayer);
-                                        if (targetNameTag != null) {
-                                            targetNameTag.getPassenger().removeViewer(viewer.getUniqueId());
-                                            targetNameTag.updateVisibility();
-                                            targetNameTag.sendPassengerPacket(viewer);
-                                        }
-                                        break;
-                                    }
-                                }
-                            });
-                        }
-                    }
-                }
+                    nameTagEntity.addViewer(event.getUser());
+
+                    nameTagEntity.sendPassengerPacket(event.getUser());
+                });
             }
             case PacketType.Play.Server.ENTITY_METADATA -> {
-                WrapperPlayServerEntityMetadata packet = new WrapperPlayServerEntityMetadata(event);
+                // Peek the entity id rather than decoding the metadata of every entity on the server
+                final Object buffer = event.getByteBuf();
+                final int start = ByteBufHelper.readerIndex(buffer);
+                final int entityId = PacketWrapper.createUniversalPacketWrapper(buffer).readVarInt();
+                ByteBufHelper.readerIndex(buffer, start);
 
-                NameTagEntity nameTagEntity = plugin.getEntityManager().getNameTagEntityByTagEntityId(packet.getEntityId());
+                NameTagEntity nameTagEntity = plugin.getEntityManager().getNameTagEntityByTagEntityId(entityId);
 
                 if (nameTagEntity == null) return;
 
-                // Backwards compatibility for clients older than 1.20.2
-                // Mojank changed the passenger origin point when riding an entity so the tag appears inside their head.
-                if (event.getUser().getClientVersion().isOlderThan(ClientVersion.V_1_20_2)) {
-
-                    byte index = PacketEvents.getAPI()
-                        .getServerManager()
-                        .getVersion()
-                        .is(VersionComparison.OLDER_THAN, ServerVersion.V_1_20_2)
-                        ? PRE_1_20_2_TRANSLATION_INDEX
-                        : POST_1_20_2_TRANSLATION_INDEX;
-
-                    packet.getEntityMetadata()
-                        .stream()
-                        .filter((meta) -> meta.getIndex() == index)
-                        .findFirst()
-                        .ifPresentOrElse((data) -> {
-                                Vector3f vec = (Vector3f) data.getValue();
-                                data.setValue(vec.add(PRE_1_20_2_TRANSLATION_OFFSET));
-                            }, () -> packet.getEntityMetadata().add(new EntityData(
-                                index,
-                                EntityDataTypes.VECTOR3F,
-                                PRE_1_20_2_TRANSLATION_OFFSET
-                            ))
-                        );
-                    event.markForReEncode(true);
+                final UUID viewer = event.getUser().getUUID();
+                final TextTemplateTrait textTrait = nameTagEntity.getTraits().getTraitOrNull(TextTemplateTrait.class);
+                final boolean relational = textTrait != null
+                    && textTrait.isRelational()
+                    && nameTagEntity.getBukkitEntity() instanceof Player;
+                final boolean spawn = viewer != null && nameTagEntity.getMetadataTracker().takeSpawning(viewer);
+                final boolean legacy = LegacyTranslation.appliesTo(event.getUser().getClientVersion());
+
+                // Swap in the text already rendered for this viewer. Until there is one they get the base
+                // text, which has the relational placeholders blanked out, and the entity's thread renders
+                // theirs and sends it on its next pass
+                final Component text = relational ? textTrait.getRelationalText(viewer) : null;
+
+                if (!legacy && text == null) return;
+
+                // Rewritten in place, sending a replacement from in here could overtake the packets before it
+                final WrapperPlayServerEntityMetadata packet = new WrapperPlayServerEntityMetadata(event);
+                List<EntityData> entries = packet.getEntityMetadata();
+                boolean changed = false;
+
+                // Older clients need their translation offset. A default translation isn't sent at all, so
+                // the spawn metadata becomes the full legacy variant, updates only shift the translation they carry
+                if (legacy && spawn) {
+                    entries = nameTagEntity.getLegacySpawnMeta();
+                    packet.setEntityMetadata(entries);
+                    changed = true;
+                } else if (legacy) {
+                    changed = LegacyTranslation.apply(entries);
                 }
 
-                // Apply relational placeholders to the text of an outgoing display entity
-                if (nameTagEntity.getBukkitEntity() instanceof Player from) {
-                    packet.getEntityMetadata()
-                        .stream()
-                        .filter((meta) -> meta.getIndex() == TEXT_DISPLAY_TEXT_INDEX && meta.getValue() instanceof Component)
-                        .findFirst()
-                        .ifPresent((data) -> {
-                            final Component originalText = (Component) data.getValue();
-                            final Player to = event.getPlayer();
-
-                            // TODO(Matt): Replace use of legacy serializer
-                            String legacy = LegacyComponentSerializer
-                                .legacyAmpersand()
-                                .serialize(originalText);
+                if (text != null) {
+                    for (int i = 0; i < entries.size(); i++) {
+                        final EntityData data = entries.get(i);
 
-                            // If it doesn't have any placeholders in then stop
-                            if (!legacy.contains("%rel_")) return;
+                        if (data.getIndex() != TEXT_DISPLAY_TEXT_INDEX || !(data.getValue() instanceof Component)) continue;
 
-                            final Component appliedText = LegacyComponentSerializer
-                                .legacyAmpersand()
-                                .deserialize(PapiHook.setRelationalPlaceholders(from, to, legacy));
-
-                            if (!originalText.equals(appliedText)) {
-
-                                data.setValue(appliedText);
+                        if (text != data.getValue()) {
+                            entries.set(i, new EntityData(TEXT_DISPLAY_TEXT_INDEX, EntityDataTypes.ADV_COMPONENT, text));
+                            changed = true;
+                        }
+                        break;
+                    }
+                }
 
-                                event.markForReEncode(true);
-                            }
-                        });
+                if (changed) {
+                    event.markForReEncode(true);
                 }
             }
             case PacketType.Play.Server.DESTROY_ENTITIES -> {
@@ -161,7 +150,7 @@ public class OutgoingPacketListener extends PacketListenerAbstract {
 
                     if (nameTagEntity == null) continue;
 
-                    nameTagEntity.getPassenger().removeViewer(event.getUser());
+                    nameTagEntity.removeViewer(event.getUser());
                 }
             }
             case PacketType.Play.Server.ENTITY_EFFECT -> {
@@ -216,6 +205,17 @@ public class OutgoingPacketListener extends PacketListenerAbstract {
         }
     }
 
+    private static @Nullable Stage stageOf(@NotNull PacketSendEvent event) {
+        return switch (event.getPacketType()) {
+            case PacketType.Play.Server.SPAWN_ENTITY -> Stage.LISTENER_SPAWN;
+            case PacketType.Play.Server.ENTITY_METADATA -> Stage.LISTENER_METADATA;
+            case PacketType.Play.Server.DESTROY_ENTITIES -> Stage.LISTENER_DESTROY;
+            case PacketType.Play.Server.ENTITY_EFFECT, PacketType.Play.Server.REMOVE_ENTITY_EFFECT -> Stage.LISTENER_EFFECT;
+            case PacketType.Play.Server.SET_PASSENGERS -> Stage.LISTENER_PASSENGERS;
+            default -> null;
+        };
+    }
+
     @Override
     public void onPacketReceive(PacketReceiveEvent event) {
         // Not needed for this functionality
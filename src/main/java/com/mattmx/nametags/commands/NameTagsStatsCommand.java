@@ -0,0 +1,141 @@
+package com.mattmx.nametags.commands;
+
+import com.mattmx.nametags.JoinSyncQueue;
+import com.mattmx.nametags.NameTags;
+import com.mattmx.nametags.config.ComponentCache;
+import com.mattmx.nametags.entity.MetadataTracker;
+import com.mattmx.nametags.entity.NameTagEntityManager;
+import com.mattmx.nametags.entity.PacketBatcher;
+import com.mattmx.nametags.entity.trait.RefreshScheduler;
+import com.mattmx.nametags.hook.PlaceholderResolver;
+import com.mattmx.nametags.stats.LatencyHistogram;
+import com.mattmx.nametags.stats.Metrics;
+import com.mattmx.nametags.stats.Stage;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.format.NamedTextColor;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabCompleter;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+public class NameTagsStatsCommand implements CommandExecutor, TabCompleter {
+    private static final List<String> ARGUMENTS = List.of("on", "off", "reset");
+    private static final int SLOWEST_PLACEHOLDERS = 5;
+
+    private final @NotNull NameTags plugin;
+
+    public NameTagsStatsCommand(@NotNull NameTags plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public boolean onCommand(@NotNull CommandSender sender, @NotNull Command command, @NotNull String label, @NotNull String[] args) {
+        if (args.length > 0) {
+            switch (args[0].toLowerCase(Locale.ROOT)) {
+                case "on" -> {
+                    Metrics.setEnabled(true);
+                    sender.sendMessage(Component.text("Stage timings enabled until the next reload.").color(NamedTextColor.GREEN));
+                }
+                case "off" -> {
+                    Metrics.setEnabled(false);
+                    sender.sendMessage(Component.text("Stage timings disabled.").color(NamedTextColor.GREEN));
+                }
+                case "reset" -> {
+                    Metrics.reset();
+                    sender.sendMessage(Component.text("Stage timings reset.").color(NamedTextColor.GREEN));
+                }
+                default -> sender.sendMessage(Component.text("Usage: /" + label + " [on/off/reset]").color(NamedTextColor.RED));
+            }
+            return true;
+        }
+
+        final RefreshScheduler scheduler = plugin.getRefreshScheduler();
+        final PacketBatcher batcher = plugin.getPacketBatcher();
+        final NameTagEntityManager manager = plugin.getEntityManager();
+        final ComponentCache cache = plugin.getFormatter().getCache();
+        final PlaceholderResolver resolver = plugin.getPlaceholderResolver();
+        final JoinSyncQueue joinSyncs = plugin.getJoinSyncQueue();
+
+        header(sender, "Refresh");
+        line(sender, "tags", scheduler.getRegisteredCount() + " registered, " + scheduler.getLastCycleProcessed() + " last cycle, " + scheduler.getTotalProcessed() + " total");
+        line(sender, "throttle", scheduler.getThrottle() == 0 ? "none" : "intervals x" + (1 << scheduler.getThrottle()));
+        line(sender, "format cache", cache.size() + " entries, " + cache.getHits() + " hits, " + cache.getMisses() + " misses");
+        line(sender, "group cache", plugin.getGroupCache().size() + " players");
+        line(sender, "placeholders", resolver.getTimeoutCount() + " timed out, " + resolver.getFallbackCount() + " fell back");
+
+        resolver.getCounters()
+            .entrySet()
+            .stream()
+            .filter((entry) -> entry.getValue().getTimeouts() > 0L)
+            .sorted(Comparator.comparingLong((Map.Entry<String, PlaceholderResolver.Counters> entry) -> entry.getValue().getTimeouts()).reversed())
+            .limit(SLOWEST_PLACEHOLDERS)
+            .forEach((entry) -> line(sender, "  " + entry.getKey(), entry.getValue().getTimeouts() + " timed out, " + entry.getValue().getFallbacks() + " fell back"));
+
+        header(sender, "Packets");
+        line(sender, "metadata", MetadataTracker.getSentCount() + " sent, " + MetadataTracker.getSuppressedCount() + " suppressed, " + MetadataTracker.getOutOfRangeCount() + " out of range, " + MetadataTracker.getCaughtUpCount() + " caught up");
+        line(sender, "encoding", MetadataTracker.getEncodedCount() + " encoded, " + MetadataTracker.getSharedCount() + " shared");
+        line(sender, "batcher", batcher.getLastTickPackets() + " packets last tick, " + batcher.getPendingCount() + " pending, " + batcher.getTotalBundles() + " bundles, " + batcher.getFlushesSaved() + " flushes saved");
+
+        header(sender, "Entities");
+        line(sender, "tags", manager.getAllEntities().size() + " tags, " + manager.getViewerIndex().getViewerCount() + " viewers, " + manager.getCellGrid().size() + " positions");
+        line(sender, "passengers", manager.getPassengerTable().size() + "/" + manager.getPassengerTable().capacity() + " vehicles, " + manager.getPassengerTable().getEvictions() + " evicted");
+        line(sender, "joins", joinSyncs.getPendingJoins() + " pending, " + joinSyncs.getPendingSyncs() + " syncs queued, " + joinSyncs.getProcessedCount() + " synced, " + joinSyncs.getMergedCount() + " merged");
+        line(sender, "toggled off", plugin.getTogglePreferences().size() + " players, " + plugin.getTogglePreferences().getPendingCount() + " unsaved");
+
+        if (!Metrics.isEnabled()) {
+            sender.sendMessage(Component.text("Stage timings are off, use /" + label + " on to record them.").color(NamedTextColor.GRAY));
+            return true;
+        }
+
+        final double seconds = Math.max(1e-9, Metrics.getElapsedNanos() / 1e9);
+
+        header(sender, "Stages (p50 / p99 / max µs)");
+        for (final Stage stage : Stage.values()) {
+            final LatencyHistogram histogram = stage.getHistogram();
+
+            if (histogram.getCount() == 0L) continue;
+
+            line(sender, stage.getDisplayName(), String.format(
+                Locale.ROOT,
+                "%d (%.1f/s) %s / %s / %s",
+                histogram.getCount(),
+                histogram.getCount() / seconds,
+                micros(histogram.getPercentile(0.5)),
+                micros(histogram.getPercentile(0.99)),
+                micros(histogram.getMax())
+            ));
+        }
+
+        return true;
+    }
+
+    @Override
+    public @NotNull List<String> onTabComplete(@NotNull CommandSender sender, @NotNull Command command, @NotNull String label, @NotNull String[] args) {
+        if (args.length != 1) return List.of();
+
+        return ARGUMENTS.stream()
+            .filter((argument) -> argument.startsWith(args[0].toLowerCase(Locale.ROOT)))
+            .toList();
+    }
+
+    private static void header(@NotNull CommandSender sender, @NotNull String title) {
+        sender.sendMessage(Component.text(title).color(NamedTextColor.GOLD));
+    }
+
+    private static void line(@NotNull CommandSender sender, @NotNull String name, @NotNull String value) {
+        sender.sendMessage(
+            Component.text(" " + name + ": ").color(NamedTextColor.GRAY)
+                .append(Component.text(value).color(NamedTextColor.WHITE))
+        );
+    }
+
+    private static @NotNull String micros(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1000.0);
+    }
+}
@@ -9,35 +9,24 @@ import org.bukkit.command.CommandSender;
 import org.bukkit.command.TabCompleter;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Entity;
 import org.bukkit.entity.Player;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.UUID;
 import java.util.stream.Collectors;
 
 public class NameTagsToggleCommand implements CommandExecutor, TabCompleter {
     private final NameTags plugin;
-    private final File dataFile;
-    private FileConfiguration data;
     private FileConfiguration messages;
 
     public NameTagsToggleCommand(NameTags plugin) {
         this.plugin = plugin;
-        this.dataFile = new File(plugin.getDataFolder(), "data.yml");
-        if (!dataFile.exists()) {
-            try {
-                dataFile.createNewFile();
-            } catch (IOException e) {
-                plugin.getLogger().severe("Could not create data.yml!");
-                e.printStackTrace();
-            }
-        }
-        this.data = YamlConfiguration.loadConfiguration(dataFile);
-        
+
         File messagesFile = new File(plugin.getDataFolder(), "messages.yml");
         if (!messagesFile.exists()) {
             plugin.saveResource("messages.yml", false);
@@ -128,51 +117,71 @@ public class NameTagsToggleCommand implements CommandExecutor, TabCompleter {
     }
 
     public boolean isNameTagsHidden(Player player) {
-        return data.getBoolean(player.getUniqueId() + ".toggle-off", false);
+        return isNameTagsHidden(player.getUniqueId());
+    }
+
+    /**
+     * Safe to call from any thread, e.g packet listeners.
+     */
+    public boolean isNameTagsHidden(UUID uuid) {
+        return plugin.getTogglePreferences().isHidden(uuid);
     }
 
     public void setNameTagsHidden(Player player, boolean hidden) {
-        String path = player.getUniqueId().toString();
+        // Only updates memory, the store writes it out in the background
+        plugin.getTogglePreferences().setHidden(player.getUniqueId(), hidden);
+
+        // Looks at the entities around the player, which is only safe on their own thread
+        if (Bukkit.isOwnedByCurrentRegion(player)) {
+            applyNameTagsHidden(player, hidden);
+        } else {
+            player.getScheduler().run(plugin, (task) -> applyNameTagsHidden(player, hidden), null);
+        }
+    }
+
+    /**
+     * Updates which name tags a player can see without changing their stored preference.
+     */
+    public void applyNameTagsHidden(Player player, boolean hidden) {
         if (hidden) {
-            data.set(path + ".toggle-off", true);
-            // Remove player as viewer from all nametag entities
-            for (NameTagEntity entity : plugin.getEntityManager().getAllEntities()) {
+            // Only the tags the player can currently see need removing
+            for (NameTagEntity entity : plugin.getEntityManager().getViewedBy(player.getUniqueId())) {
                 // Skip the player's own nametag
                 if (entity.getBukkitEntity().getUniqueId().equals(player.getUniqueId())) {
                     continue;
                 }
-                entity.getPassenger().removeViewer(player.getUniqueId());
+                entity.removeViewer(player.getUniqueId());
                 entity.updateVisibility();
             }
         } else {
-            if (data.contains(path + ".toggle-off")) {
-                data.set(path + ".toggle-off", null);
-            }
-            if (data.getConfigurationSection(path) != null && data.getConfigurationSection(path).getKeys(false).isEmpty()) {
-                data.set(path, null);
-            }
-            // Add player as viewer to all nametag entities and force update
-            for (NameTagEntity entity : plugin.getEntityManager().getAllEntities()) {
+            // Add player as viewer to the nametag entities around them and force update
+            for (NameTagEntity entity : getTrackedNameTags(player)) {
                 // Skip the player's own nametag
                 if (entity.getBukkitEntity().getUniqueId().equals(player.getUniqueId())) {
                     continue;
                 }
-                entity.getPassenger().addViewer(player.getUniqueId());
+                entity.addViewer(player.getUniqueId());
                 entity.updateVisibility();
                 // Force send the passenger packet to update the nametag for the player
                 entity.sendPassengerPacket(player);
             }
         }
-        saveData();
     }
 
-    private void saveData() {
-        try {
-            data.save(dataFile);
-        } catch (IOException e) {
-            plugin.getLogger().severe("Could not save data.yml!");
-            e.printStackTrace();
+    private @NotNull List<NameTagEntity> getTrackedNameTags(@NotNull Player player) {
+        double radius = Bukkit.getViewDistance() * 16.0;
+        List<NameTagEntity> tags = new ArrayList<>();
+
+        // The client only has entities it is tracking, which are always within view distance
+        for (Entity nearby : player.getNearbyEntities(radius, radius, radius)) {
+            NameTagEntity tag = plugin.getEntityManager().getNameTagEntity(nearby);
+
+            if (tag != null && nearby.getTrackedBy().contains(player)) {
+                tags.add(tag);
+            }
         }
+
+        return tags;
     }
 
     private String getMessage(String path) {
@@ -180,8 +189,6 @@ public class NameTagsToggleCommand implements CommandExecutor, TabCompleter {
     }
 
     public void reloadData() {
-        data = YamlConfiguration.loadConfiguration(dataFile);
-        
         // Reload messages
         File messagesFile = new File(plugin.getDataFolder(), "messages.yml");
         if (messagesFile.exists()) {
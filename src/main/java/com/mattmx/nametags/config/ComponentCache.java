@@ -0,0 +1,96 @@
+package com.mattmx.nametags.config;
+
+import net.kyori.adventure.text.Component;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Bounded LRU cache of formatted lines, keyed by the fully resolved input string.
+ * <p>
+ * The cache is split into segments that each hold their own lock so refresh threads rarely contend.
+ * A hit returns the exact same {@link Component} instance as before, which lets callers detect an
+ * unchanged line with an identity check instead of a deep equals.
+ */
+public class ComponentCache {
+    private static final int SEGMENTS = 16;
+
+    private final @NotNull Segment[] segments = new Segment[SEGMENTS];
+    private final @NotNull LongAdder hits = new LongAdder();
+    private final @NotNull LongAdder misses = new LongAdder();
+
+    public ComponentCache(int capacity) {
+        final int perSegment = Math.max(1, capacity / SEGMENTS);
+
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+    }
+
+    public @NotNull Component get(@NotNull String input, @NotNull Function<String, Component> loader) {
+        final Segment segment = segments[(input.hashCode() & 0x7FFFFFFF) % SEGMENTS];
+
+        Component component;
+        synchronized (segment) {
+            component = segment.get(input);
+        }
+
+        if (component != null) {
+            hits.increment();
+            return component;
+        }
+
+        misses.increment();
+
+        // Parse outside the lock, if two threads race the first one stored wins
+        component = loader.apply(input);
+
+        synchronized (segment) {
+            final Component existing = segment.putIfAbsent(input, component);
+            return existing == null ? component : existing;
+        }
+    }
+
+    public void clear() {
+        for (final Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public int size() {
+        int size = 0;
+        for (final Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    private static final class Segment extends LinkedHashMap<String, Component> {
+        private final int capacity;
+
+        private Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Component> eldest) {
+            return size() > capacity;
+        }
+    }
+}
@@ -2,21 +2,21 @@ package com.mattmx.nametags.config;
 
 import com.mattmx.nametags.NameTags;
 import com.mattmx.nametags.entity.NameTagEntity;
+import com.mattmx.nametags.entity.trait.RefreshTask;
 import com.mattmx.nametags.entity.trait.RefreshTrait;
 import com.mattmx.nametags.entity.trait.SneakTrait;
+import com.mattmx.nametags.entity.trait.TextTemplateTrait;
 import com.mattmx.nametags.event.NameTagEntityCreateEvent;
+import com.mattmx.nametags.hook.PlaceholderResolver;
 import me.tofaa.entitylib.meta.display.AbstractDisplayMeta;
 import org.bukkit.Color;
-import org.bukkit.configuration.ConfigurationSection;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.Comparator;
-import java.util.List;
-import java.util.Map;
 
 public class ConfigDefaultsListener implements Listener {
     private final @NotNull NameTags plugin;
@@ -28,14 +28,10 @@ public class ConfigDefaultsListener implements Listener {
             .getEntityManager()
             .setDefaultProvider(((entity, meta) -> {
                 meta.setUseDefaultBackground(false);
-                TextDisplayMetaConfiguration.applyMeta(defaultSection(), meta);
+                TextDisplayMetaConfiguration.applyMeta(plugin.getSettings().defaults(), meta);
             }));
     }
 
-    private ConfigurationSection defaultSection() {
-        return plugin.getConfig().getConfigurationSection("defaults");
-    }
-
     @EventHandler
     public void onCreate(@NotNull NameTagEntityCreateEvent event) {
         if (!(event.getNameTag().getBukkitEntity() instanceof Player player)) return;
@@ -46,70 +42,124 @@ public class ConfigDefaultsListener implements Listener {
             .getEntityMeta()
             .setNotifyAboutChanges(false);
 
-        long refreshMillis = plugin.getConfig().getLong("defaults.refresh-every", 50);
+        TagStyle defaults = plugin.getSettings().defaults();
 
-        if (refreshMillis == 0L) {
+        if (defaults.refreshEvery() == 0L) {
             return;
         }
 
-        registerDefaultRefreshListener(event.getNameTag(), refreshMillis);
+        registerDefaultRefreshListener(event.getNameTag(), defaults.refreshEvery(), defaults.refreshMax());
     }
 
+    public void registerDefaultRefreshListener(@NotNull NameTagEntity tag, long refreshMillis, long refreshMaxMillis) {
+        tag.getTraits().getOrAddTrait(RefreshTrait.class, () ->
+            RefreshTrait.adaptive(plugin, refreshMillis, refreshMaxMillis, new DefaultRefresh())
+        );
+    }
+
+    /**
+     * Refreshes at a fixed period, as before refresh-max existed.
+     *
+     * @deprecated use {@link #registerDefaultRefreshListener(NameTagEntity, long, long)}
+     */
+    @Deprecated
     public void registerDefaultRefreshListener(@NotNull NameTagEntity tag, long refreshMillis) {
-        Player player = (Player) tag.getBukkitEntity();
+        registerDefaultRefreshListener(tag, refreshMillis, refreshMillis);
+    }
 
-        tag.getTraits().getOrAddTrait(RefreshTrait.class, () ->
-            RefreshTrait.ofMillis(
-                plugin,
-                refreshMillis,
-                (entity) -> {
-                    synchronized (entity) {
-                        TextDisplayMetaConfiguration.applyMeta(defaultSection(), entity.getMeta());
-                        TextDisplayMetaConfiguration.applyTextMeta(defaultSection(), entity.getMeta(), player);
-
-                        // TODO we should cache this stuff
-                        List<Map.Entry<String, ConfigurationSection>> groups = plugin.getGroups()
-                            .entrySet()
-                            .stream()
-                            .filter((e) -> player.hasPermission(e.getKey()))
-                            .sorted(GroupPriorityComparator.get())
-                            .toList();
-
-                        long recentRefreshEvery = plugin.getConfig().getLong("defaults.refresh-every", 50);
-                        if (!groups.isEmpty()) {
-                            Map.Entry<String, ConfigurationSection> highest = groups.getLast();
-
-                            TextDisplayMetaConfiguration.applyMeta(highest.getValue(), entity.getMeta());
-                            TextDisplayMetaConfiguration.applyTextMeta(highest.getValue(), entity.getMeta(), player);
-
-                            long groupRefresh = highest.getValue().getLong("refresh-every", -1);
-                            if (groupRefresh > 0) {
-                                recentRefreshEvery = groupRefresh;
-                            }
-                        }
-
-                        if (recentRefreshEvery != refreshMillis) {
-                            entity.getTraits().removeTrait(RefreshTrait.class);
-                            registerDefaultRefreshListener(tag, recentRefreshEvery);
-                        }
-
-                        if (entity.getMeta().getBillboardConstraints() == AbstractDisplayMeta.BillboardConstraints.CENTER) {
-                            // Look passenger down to remove debug getting in the way
-                            entity.getPassenger().rotateHead(0f, 90f);
-                        }
-
-                        // Preserve background color for sneaking
-                        // Maybe we should introduce an `afterRefresh` callback?
-                        entity.getTraits()
-                            .getTrait(SneakTrait.class)
-                            .ifPresent(SneakTrait::manuallyUpdateSneakingOpacity);
-
-                        entity.updateVisibility();
-                        entity.getPassenger().refresh();
+    /**
+     * Reads the player's group, placeholders and visibility on the player's own thread, then updates the
+     * tag from that copy on the refresh thread. Relational text is rendered separately on the entity's
+     * thread, see {@link TextTemplateTrait#updateRelational(long, long)}.
+     */
+    private class DefaultRefresh implements RefreshTask<RefreshSnapshot> {
+
+        @Override
+        public @Nullable RefreshSnapshot snapshot(@NotNull NameTagEntity entity) {
+            if (!(entity.getBukkitEntity() instanceof Player player)) return null;
+
+            NameTagsConfig settings = plugin.getSettings();
+            GroupStyle highest = plugin.getGroupCache().getGroup(player);
+
+            // Groups without their own text fall back to the default lines
+            TextTemplate template = settings.defaults().text();
+            if (highest != null && highest.style().text() != null) {
+                template = highest.style().text();
+            }
+
+            PlaceholderResolver.Resolution values = null;
+            if (template != null) {
+                values = template.resolve(player);
+            }
+
+            return new RefreshSnapshot(settings, highest, template, values, entity.isInvisible());
+        }
+
+        @Override
+        public boolean apply(@NotNull NameTagEntity entity, @Nullable RefreshSnapshot snapshot) {
+            if (snapshot == null) return false;
+
+            // Slow placeholders are waited for here rather than on the player's thread
+            String[][] values = snapshot.values() == null ? null : snapshot.values().await();
+
+            synchronized (entity) {
+                NameTagsConfig settings = snapshot.settings();
+                GroupStyle highest = snapshot.group();
+                TextDisplayMetaConfiguration.applyMeta(settings.defaults(), entity.getMeta());
+
+                long recentRefreshEvery = settings.defaults().refreshEvery();
+                long recentRefreshMax = settings.defaults().refreshMax();
+                if (highest != null) {
+                    TextDisplayMetaConfiguration.applyMeta(highest.style(), entity.getMeta());
+
+                    long groupRefresh = highest.style().refreshEvery();
+                    if (groupRefresh > 0) {
+                        recentRefreshEvery = groupRefresh;
+                    }
+
+                    long groupRefreshMax = highest.style().refreshMax();
+                    if (groupRefreshMax >= 0) {
+                        recentRefreshMax = groupRefreshMax;
                     }
                 }
-            )
-        );
+
+                TextTemplate template = snapshot.template();
+                if (template != null && values != null) {
+                    TextDisplayMetaConfiguration.applyTextMeta(template, entity, values);
+                }
+
+                RefreshTrait refresh = entity.getTraits().getTraitOrNull(RefreshTrait.class);
+                if (refresh != null) {
+                    refresh.setPeriod(recentRefreshEvery, recentRefreshMax);
+                }
+
+                if (entity.getMeta().getBillboardConstraints() == AbstractDisplayMeta.BillboardConstraints.CENTER) {
+                    // Look passenger down to remove debug getting in the way
+                    entity.getPassenger().rotateHead(0f, 90f);
+                }
+
+                // Preserve background color for sneaking
+                // Maybe we should introduce an `afterRefresh` callback?
+                entity.getTraits()
+                    .getTrait(SneakTrait.class)
+                    .ifPresent(SneakTrait::manuallyUpdateSneakingOpacity);
+
+                entity.updateVisibility(snapshot.invisible());
+
+                // Relational text is sent per viewer outside of the metadata flush, and on Folia only rendered
+                // alongside a refresh, so those tags never back off
+                return entity.flushMeta() || (template != null && template.isRelational());
+            }
+        }
+    }
+
+    private record RefreshSnapshot(
+        @NotNull NameTagsConfig settings,
+        @Nullable GroupStyle group,
+        @Nullable TextTemplate template,
+        @Nullable PlaceholderResolver.Resolution values,
+        boolean invisible
+    ) {
     }
 
 }
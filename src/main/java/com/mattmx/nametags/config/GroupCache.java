@@ -0,0 +1,98 @@
+package com.mattmx.nametags.config;
+
+import com.mattmx.nametags.NameTags;
+import com.mattmx.nametags.entity.NameTagEntity;
+import com.mattmx.nametags.entity.trait.RefreshTrait;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the highest priority group of each player so refreshes don't have to check every group permission.
+ * <p>
+ * Entries are dropped when a player's permissions are recalculated, when they change world or quit,
+ * and on reload. As a safety net they also expire after {@code group-recheck-every} milliseconds.
+ */
+public class GroupCache {
+    private final @NotNull NameTags plugin;
+    private final @NotNull Map<UUID, Resolved> cache = new ConcurrentHashMap<>();
+    private volatile long generation = 0L;
+    // Bumped by every invalidation, so a resolve that raced one doesn't stay cached
+    private final @NotNull AtomicLong invalidations = new AtomicLong();
+
+    public GroupCache(@NotNull NameTags plugin) {
+        this.plugin = plugin;
+    }
+
+    public @Nullable GroupStyle getGroup(@NotNull Player player) {
+        final long generation = this.generation;
+        final long invalidations = this.invalidations.get();
+        final long now = System.currentTimeMillis();
+        final Resolved cached = cache.get(player.getUniqueId());
+
+        if (cached != null && cached.generation == generation && !isExpired(cached, now)) {
+            return cached.group;
+        }
+
+        final GroupStyle group = resolve(player);
+
+        final Resolved resolved = new Resolved(group, now, generation);
+        cache.put(player.getUniqueId(), resolved);
+
+        // Invalidated while resolving, the group may be stale so only this caller gets to use it
+        if (this.invalidations.get() != invalidations) {
+            cache.remove(player.getUniqueId(), resolved);
+        }
+
+        return group;
+    }
+
+    public void invalidate(@NotNull UUID player) {
+        invalidations.incrementAndGet();
+        cache.remove(player);
+
+        // A backed off tag would otherwise only notice the new group whenever it next refreshes
+        final NameTagEntity tag = plugin.getEntityManager().getNameTagEntityByUUID(player);
+
+        if (tag != null) {
+            tag.getTraits()
+                .getTrait(RefreshTrait.class)
+                .ifPresent(RefreshTrait::wake);
+        }
+    }
+
+    public void invalidateAll() {
+        this.generation++;
+        invalidations.incrementAndGet();
+        cache.clear();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    private boolean isExpired(@NotNull Resolved resolved, long now) {
+        final long recheck = plugin.getSettings().groupRecheckMillis();
+
+        // Negative values disable the safety re-check entirely
+        return recheck >= 0 && now - resolved.resolvedAt >= recheck;
+    }
+
+    private @Nullable GroupStyle resolve(@NotNull Player player) {
+        // Groups are sorted highest priority first so the first match wins
+        for (final GroupStyle group : plugin.getSettings().groups()) {
+            if (player.hasPermission(group.permission())) {
+                return group;
+            }
+        }
+        return null;
+    }
+
+    private record Resolved(@Nullable GroupStyle group, long resolvedAt, long generation) {
+    }
+}
@@ -1,16 +1,14 @@
 package com.mattmx.nametags.config;
 
-import org.bukkit.configuration.ConfigurationSection;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.Comparator;
-import java.util.Map;
 
 public class GroupPriorityComparator {
-    private static final @NotNull Comparator<Map.Entry<String, ConfigurationSection>> INSTANCE =
-        Comparator.comparingInt((s) -> s.getValue().getInt("priority"));
+    private static final @NotNull Comparator<GroupStyle> INSTANCE =
+        Comparator.comparingInt(GroupStyle::priority);
 
-    public static @NotNull Comparator<Map.Entry<String, ConfigurationSection>> get() {
+    public static @NotNull Comparator<GroupStyle> get() {
         return INSTANCE;
     }
 }
@@ -0,0 +1,14 @@
+package com.mattmx.nametags.config;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A compiled permission group from the {@code groups} section.
+ *
+ * @param name       the key of the group in the config
+ * @param permission the permission node that grants the group
+ * @param priority   higher priorities win when a player has several groups
+ * @param style      overrides applied on top of the defaults
+ */
+public record GroupStyle(@NotNull String name, @NotNull String permission, int priority, @NotNull TagStyle style) {
+}
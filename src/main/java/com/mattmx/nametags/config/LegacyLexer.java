@@ -0,0 +1,246 @@
+package com.mattmx.nametags.config;
+
+import com.mattmx.nametags.NameTags;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.format.NamedTextColor;
+import net.kyori.adventure.text.format.Style;
+import net.kyori.adventure.text.format.TextColor;
+import net.kyori.adventure.text.format.TextDecoration;
+import net.kyori.adventure.text.minimessage.MiniMessage;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Single pass translation of {@code &}/{@code §} codes, {@code &#RRGGBB} and {@code &x&R&R&G&G&B&B} hex.
+ * <p>
+ * Lines that are only legacy formatted are turned straight into components. SMART lines that also
+ * contain MiniMessage tags are rewritten into MiniMessage in the same pass and parsed once.
+ */
+final class LegacyLexer {
+    private static final char CODE_CHAR = '&';
+    private static final String COLOR_CODES = "0123456789abcdef";
+    private static final String DECORATION_CODES = "klmno";
+    private static final char RESET_CODE = 'r';
+
+    private static final NamedTextColor[] COLORS = {
+        NamedTextColor.BLACK, NamedTextColor.DARK_BLUE, NamedTextColor.DARK_GREEN, NamedTextColor.DARK_AQUA,
+        NamedTextColor.DARK_RED, NamedTextColor.DARK_PURPLE, NamedTextColor.GOLD, NamedTextColor.GRAY,
+        NamedTextColor.DARK_GRAY, NamedTextColor.BLUE, NamedTextColor.GREEN, NamedTextColor.AQUA,
+        NamedTextColor.RED, NamedTextColor.LIGHT_PURPLE, NamedTextColor.YELLOW, NamedTextColor.WHITE
+    };
+    private static final String[] COLOR_TAGS = {
+        "<black>", "<dark_blue>", "<dark_green>", "<dark_aqua>",
+        "<dark_red>", "<dark_purple>", "<gold>", "<gray>",
+        "<dark_gray>", "<blue>", "<green>", "<aqua>",
+        "<red>", "<light_purple>", "<yellow>", "<white>"
+    };
+    private static final TextDecoration[] DECORATIONS = {
+        TextDecoration.OBFUSCATED, TextDecoration.BOLD, TextDecoration.STRIKETHROUGH,
+        TextDecoration.UNDERLINED, TextDecoration.ITALIC
+    };
+    private static final String[] DECORATION_TAGS = {"<obf>", "<b>", "<st>", "<u>", "<i>"};
+
+    private LegacyLexer() {
+    }
+
+    /**
+     * Bukkit semantics, a color clears any decorations before it.
+     */
+    static @NotNull Component legacy(@NotNull String line) {
+        return build(line, false);
+    }
+
+    /**
+     * MiniMessage semantics, codes behave like opening tags so a color keeps earlier decorations.
+     */
+    static @NotNull Component smart(@NotNull String line) {
+        // Tags and escapes need the MiniMessage parser
+        if (line.indexOf('<') != -1 || line.indexOf('\\') != -1) {
+            return MiniMessage.miniMessage().deserialize(toMiniMessage(line));
+        }
+
+        return build(line, true);
+    }
+
+    /**
+     * Rewrites every legacy code into its MiniMessage tag, leaving everything else untouched.
+     */
+    static @NotNull String toMiniMessage(@NotNull String line) {
+        final StringBuilder builder = new StringBuilder(line.length() + 16);
+        final int length = line.length();
+        int i = 0;
+
+        while (i < length) {
+            final char c = line.charAt(i);
+
+            if (!isCodeChar(c)) {
+                builder.append(c);
+                i++;
+                continue;
+            }
+
+            final int hexLength = hexLength(line, i);
+
+            if (hexLength > 0) {
+                builder.append("<#");
+                appendHexDigits(builder, line, i, hexLength);
+                builder.append('>');
+                i += hexLength;
+                continue;
+            }
+
+            final char code = i + 1 < length ? line.charAt(i + 1) : '\0';
+            final int color = COLOR_CODES.indexOf(code);
+            final int decoration = DECORATION_CODES.indexOf(code);
+
+            if (color != -1) {
+                builder.append(COLOR_TAGS[color]);
+            } else if (decoration != -1) {
+                builder.append(DECORATION_TAGS[decoration]);
+            } else if (code == RESET_CODE) {
+                builder.append("<reset>");
+            } else {
+                builder.append(CODE_CHAR);
+                i++;
+                continue;
+            }
+            i += 2;
+        }
+
+        return builder.toString();
+    }
+
+    private static @NotNull Component build(@NotNull String line, boolean smart) {
+        if (line.isEmpty()) return Component.empty();
+
+        final List<Component> spans = new ArrayList<>(4);
+        final StringBuilder text = new StringBuilder(line.length());
+        final int length = line.length();
+        Style style = Style.empty();
+        int i = 0;
+
+        while (i < length) {
+            final char c = line.charAt(i);
+
+            if (!isCodeChar(c)) {
+                text.append(c);
+                i++;
+                continue;
+            }
+
+            final int hexLength = hexLength(line, i);
+            Style next = null;
+
+            if (hexLength > 0) {
+                final TextColor color = TextColor.color(parseHex(line, i, hexLength));
+                next = smart ? style.color(color) : Style.style(color);
+                i += hexLength;
+            } else {
+                next = applyCode(style, i + 1 < length ? line.charAt(i + 1) : '\0', smart);
+
+                if (next == null) {
+                    text.append(CODE_CHAR);
+                    i++;
+                    continue;
+                }
+                i += 2;
+            }
+
+            if (!next.equals(style)) {
+                flush(spans, text, style);
+                style = next;
+            }
+        }
+        flush(spans, text, style);
+
+        if (spans.isEmpty()) return Component.empty();
+        if (spans.size() == 1) return spans.get(0);
+
+        return Component.text()
+            .append(spans)
+            .build();
+    }
+
+    private static @Nullable Style applyCode(@NotNull Style style, char code, boolean smart) {
+        // The legacy serializer accepts either case, the SMART replacements only ever matched lower case
+        final char lookup = smart ? code : Character.toLowerCase(code);
+        final int color = COLOR_CODES.indexOf(lookup);
+
+        if (color != -1) {
+            return smart ? style.color(COLORS[color]) : Style.style(COLORS[color]);
+        }
+
+        final int decoration = DECORATION_CODES.indexOf(lookup);
+
+        if (decoration != -1) {
+            return style.decorate(DECORATIONS[decoration]);
+        }
+
+        return lookup == RESET_CODE ? Style.empty() : null;
+    }
+
+    private static void flush(@NotNull List<Component> spans, @NotNull StringBuilder text, @NotNull Style style) {
+        if (text.isEmpty()) return;
+
+        spans.add(Component.text(text.toString(), style));
+        text.setLength(0);
+    }
+
+    private static boolean isCodeChar(char c) {
+        return c == CODE_CHAR || c == NameTags.LEGACY_CHAR;
+    }
+
+    /**
+     * @return 8 for {@code &#RRGGBB}, 14 for {@code &x&R&R&G&G&B&B}, otherwise 0
+     */
+    private static int hexLength(@NotNull String line, int start) {
+        if (start + 1 >= line.length()) return 0;
+
+        final char kind = line.charAt(start + 1);
+
+        if (kind == '#') {
+            if (start + 8 > line.length()) return 0;
+
+            for (int i = start + 2; i < start + 8; i++) {
+                if (Character.digit(line.charAt(i), 16) == -1) return 0;
+            }
+            return 8;
+        }
+
+        if (kind == 'x') {
+            if (start + 14 > line.length()) return 0;
+
+            for (int i = start + 2; i < start + 14; i += 2) {
+                if (!isCodeChar(line.charAt(i)) || Character.digit(line.charAt(i + 1), 16) == -1) return 0;
+            }
+            return 14;
+        }
+
+        return 0;
+    }
+
+    private static void appendHexDigits(@NotNull StringBuilder builder, @NotNull String line, int start, int hexLength) {
+        if (hexLength == 8) {
+            builder.append(line, start + 2, start + 8);
+            return;
+        }
+
+        for (int i = start + 3; i < start + 14; i += 2) {
+            builder.append(line.charAt(i));
+        }
+    }
+
+    private static int parseHex(@NotNull String line, int start, int hexLength) {
+        final int step = hexLength == 8 ? 1 : 2;
+        int rgb = 0;
+
+        for (int i = start + (hexLength == 8 ? 2 : 3); i < start + hexLength; i += step) {
+            rgb = (rgb << 4) | Character.digit(line.charAt(i), 16);
+        }
+
+        return rgb;
+    }
+}
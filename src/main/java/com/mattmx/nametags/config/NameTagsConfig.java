@@ -0,0 +1,103 @@
+package com.mattmx.nametags.config;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable snapshot of {@code config.yml}. A new one is compiled on every reload and swapped in
+ * atomically, so hot paths never read or parse the Bukkit configuration.
+ *
+ * @param enabled             whether the {@code defaults} section is used at all
+ * @param defaults            the compiled {@code defaults} section
+ * @param groups              permission groups, highest priority first
+ * @param showSelf            whether players see their own tag
+ * @param sneakEnabled        whether the tag's background fades while its owner sneaks
+ * @param sneakOpacity        the background alpha while sneaking, from 0 to 255
+ * @param formatter           how tag text is turned into components
+ * @param groupRecheckMillis  how often cached groups are re-checked, see {@link GroupCache}
+ * @param relationalCacheTtl  how long relational text is reused per viewer
+ * @param relationalBudget    milliseconds per tick spent rendering relational text
+ * @param updateDistanceScale multiplier on a tag's view range when deciding who gets its updates, 0 sends to all viewers
+ * @param msptBudget          average tick time above which refreshes are slowed down, 0 to never throttle
+ * @param placeholderDeadline how long a refresh waits for its placeholders before using their last values, 0 to wait for them
+ * @param mainThreadPlaceholders expansion identifiers that are always resolved on the player's thread
+ * @param joinSyncBudget      milliseconds per tick spent syncing tags after joins, see {@link com.mattmx.nametags.JoinSyncQueue}
+ * @param statsEnabled        whether stage timings are recorded for {@code /nametags-stats}
+ * @param glowingFeature      whether the tag turns see-through while its owner is glowing
+ */
+public record NameTagsConfig(
+    boolean enabled,
+    @NotNull TagStyle defaults,
+    @NotNull List<GroupStyle> groups,
+    boolean showSelf,
+    boolean sneakEnabled,
+    int sneakOpacity,
+    @NotNull TextFormatter formatter,
+    long groupRecheckMillis,
+    long relationalCacheTtl,
+    double relationalBudget,
+    double updateDistanceScale,
+    double msptBudget,
+    long placeholderDeadline,
+    @NotNull List<String> mainThreadPlaceholders,
+    double joinSyncBudget,
+    boolean statsEnabled,
+    boolean glowingFeature
+) {
+    public static final String GROUP_PERMISSION_PREFIX = "nametags.groups.";
+
+    public static @NotNull NameTagsConfig compile(@NotNull FileConfiguration config) {
+        TextFormatter formatter = TextFormatter.getById(config.getString("formatter", "minimessage"))
+            .orElse(TextFormatter.MINI_MESSAGE);
+        boolean removeEmptyLines = config.getBoolean("defaults.remove-empty-lines", false);
+
+        ConfigurationSection defaultsSection = config.getConfigurationSection("defaults");
+        TagStyle defaults = defaultsSection == null
+            ? TagStyle.EMPTY
+            : TagStyle.compile(defaultsSection, formatter, removeEmptyLines, 50L, 0L);
+
+        List<GroupStyle> groups = new ArrayList<>();
+        ConfigurationSection groupsSection = config.getConfigurationSection("groups");
+
+        if (groupsSection != null) {
+            for (String key : groupsSection.getKeys(false)) {
+                ConfigurationSection sub = groupsSection.getConfigurationSection(key);
+
+                if (sub == null) continue;
+
+                groups.add(new GroupStyle(
+                    key,
+                    GROUP_PERMISSION_PREFIX + key,
+                    sub.getInt("priority"),
+                    TagStyle.compile(sub, formatter, removeEmptyLines, -1L, -1L)
+                ));
+            }
+        }
+
+        groups.sort(GroupPriorityComparator.get().reversed());
+
+        return new NameTagsConfig(
+            config.getBoolean("defaults.enabled"),
+            defaults,
+            List.copyOf(groups),
+            config.getBoolean("show-self", false),
+            config.getBoolean("sneak.enabled"),
+            config.getInt("sneak.opacity", 70),
+            formatter,
+            config.getLong("group-recheck-every", 5000L),
+            config.getLong("relational-cache-ttl", 1000L),
+            config.getDouble("relational-budget", 2.0),
+            config.getDouble("update-distance-scale", 1.0),
+            config.getDouble("refresh-mspt-budget", 0.0),
+            config.getLong("placeholder-deadline", 5L),
+            List.copyOf(config.getStringList("main-thread-placeholders")),
+            config.getDouble("join-sync-budget", 2.0),
+            config.getBoolean("stats.enabled", false),
+            config.getBoolean("extra.glowing-feature")
+        );
+    }
+}
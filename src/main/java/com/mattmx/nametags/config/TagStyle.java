@@ -0,0 +1,148 @@
+package com.mattmx.nametags.config;
+
+import com.github.retrooper.packetevents.util.Vector3f;
+import com.mattmx.nametags.NameTags;
+import me.tofaa.entitylib.meta.display.AbstractDisplayMeta;
+import net.kyori.adventure.text.format.NamedTextColor;
+import org.bukkit.Bukkit;
+import org.bukkit.Color;
+import org.bukkit.configuration.ConfigurationSection;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * A compiled {@code defaults} or group section. Every option is parsed once on load, null means the
+ * section doesn't set that option.
+ *
+ * @param refreshEvery refresh period in milliseconds, or -1 if not set
+ * @param refreshMax   longest the period backs off to while the text doesn't change, or -1 if not set
+ * @param text         the compiled text lines, or null if the section has none
+ */
+public record TagStyle(
+    @Nullable Integer background,
+    @Nullable AbstractDisplayMeta.BillboardConstraints billboard,
+    @Nullable Boolean seeThrough,
+    @Nullable Integer lineWidth,
+    @Nullable Byte textOpacity,
+    @Nullable Boolean textShadow,
+    @Nullable Vector3f translate,
+    @Nullable Float gap,
+    @Nullable Vector3f scale,
+    @Nullable Integer brightness,
+    @Nullable Float shadowStrength,
+    @Nullable Float shadowRadius,
+    @Nullable Float range,
+    long refreshEvery,
+    long refreshMax,
+    @Nullable TextTemplate text
+) {
+    public static final @NotNull TagStyle EMPTY = new TagStyle(
+        null, null, null, null, null, null, null, null, null, null, null, null, null, -1L, -1L, null
+    );
+
+    public static @NotNull TagStyle compile(
+        @NotNull ConfigurationSection section,
+        @NotNull TextFormatter formatter,
+        boolean removeEmptyLines,
+        long defaultRefreshEvery,
+        long defaultRefreshMax
+    ) {
+        ConfigurationSection shadow = isSet(section, "shadow") ? section.getConfigurationSection("shadow") : null;
+        List<String> lines = section.getStringList("text");
+
+        return new TagStyle(
+            isSet(section, "background") ? parseBackground(Objects.requireNonNull(section.getString("background"))) : null,
+            isSet(section, "billboard") ? parseBillboard(section, Objects.requireNonNull(section.getString("billboard"))) : null,
+            isSet(section, "see-through") ? section.getBoolean("see-through") : null,
+            isSet(section, "line-width") ? section.getInt("line-width") : null,
+            isSet(section, "text-opacity") ? (byte) section.getInt("text-opacity") : null,
+            isSet(section, "text-shadow") ? section.getBoolean("text-shadow") : null,
+            isSet(section, "translate") ? parseVector(section.getConfigurationSection("translate")) : null,
+            isSet(section, "gap") ? parseGap(Objects.requireNonNull(section.getString("gap"))) : null,
+            isSet(section, "scale") ? parseVector(section.getConfigurationSection("scale")) : null,
+            isSet(section, "brightness") ? section.getInt("brightness") : null,
+            shadow != null ? (float) shadow.getDouble("strength") : null,
+            shadow != null ? (float) shadow.getDouble("radius") : null,
+            isSet(section, "range") ? parseRange(Objects.requireNonNull(section.getString("range"))) : null,
+            section.getLong("refresh-every", defaultRefreshEvery),
+            section.getLong("refresh-max", defaultRefreshMax),
+            lines.isEmpty() ? null : TextTemplate.compile(lines, formatter, removeEmptyLines)
+        );
+    }
+
+    private static boolean isSet(@NotNull ConfigurationSection section, @NotNull String key) {
+        return section.get(key) != null;
+    }
+
+    private static int parseBackground(@NotNull String backgroundColor) {
+        if (backgroundColor.equalsIgnoreCase("transparent")) {
+            return NameTags.TRANSPARENT;
+        } else if (NamedTextColor.NAMES.value(backgroundColor) != null) {
+            return 0x40000000 | Objects.requireNonNull(NamedTextColor.NAMES.value(backgroundColor)).value();
+        } else if (backgroundColor.startsWith("#")) {
+            String hex = backgroundColor.replace("#", "");
+
+            int rgb;
+            int a;
+            if (hex.length() == 6) {
+                rgb = Integer.parseInt(hex, 16);
+                // Set a default alpha of 0x40 (minecraft's internal default)
+                a = 0x40;
+            } else if (hex.length() == 8) {
+                rgb = Integer.parseInt(hex.substring(2), 16);
+                a = Integer.parseInt(hex.substring(0, 2), 16);
+            } else {
+                throw new RuntimeException(String.format("Invalid hex string '#%s'!", hex));
+            }
+
+            return Color.fromARGB(rgb).setAlpha(a).asARGB();
+        }
+
+        return NameTags.TRANSPARENT;
+    }
+
+    private static @NotNull AbstractDisplayMeta.BillboardConstraints parseBillboard(@NotNull ConfigurationSection section, @NotNull String billboardString) {
+        AbstractDisplayMeta.BillboardConstraints billboard = ConfigHelper.getEnumByNameOrNull(
+            AbstractDisplayMeta.BillboardConstraints.class,
+            billboardString.toLowerCase(Locale.ROOT)
+        );
+
+        return Objects.requireNonNull(billboard, "Unknown billboard type in section " + section.getCurrentPath() + " named " + billboardString);
+    }
+
+    private static @Nullable Vector3f parseVector(@Nullable ConfigurationSection vector) {
+        if (vector == null) return null;
+
+        return new Vector3f(
+            (float) vector.getDouble("x"),
+            (float) vector.getDouble("y"),
+            (float) vector.getDouble("z")
+        );
+    }
+
+    private static float parseGap(@NotNull String gap) {
+        return gap.equalsIgnoreCase("default")
+            ? 0.2f
+            : Float.parseFloat(gap);
+    }
+
+    private static float parseRange(@NotNull String range) {
+        return range.equalsIgnoreCase("default")
+            ? defaultRange(Bukkit.getSimulationDistance())
+            : Float.parseFloat(range);
+    }
+
+    /**
+     * A display's view range is a multiplier on 64 blocks, not a distance.
+     *
+     * @param simulationDistance the server's simulation distance in chunks
+     * @return the view range that reaches as far as the simulation distance
+     */
+    public static float defaultRange(int simulationDistance) {
+        return simulationDistance * 16f / 64f;
+    }
+}
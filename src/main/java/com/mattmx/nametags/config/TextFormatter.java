@@ -1,6 +1,7 @@
 package com.mattmx.nametags.config;
 
-import com.mattmx.nametags.NameTags;
+import com.mattmx.nametags.stats.Metrics;
+import com.mattmx.nametags.stats.Stage;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.minimessage.MiniMessage;
 import net.kyori.adventure.text.serializer.legacy.LegacyComponentSerializer;
@@ -19,42 +20,12 @@ public enum TextFormatter {
     ),
     LEGACY(
         "legacy",
-        (line) -> getLegacySerializer().deserialize(convertLegacyHex(line.replace(NameTags.LEGACY_CHAR, '&')))
+        LegacyLexer::legacy
     ),
     SMART(
         "smart",
-        (line) -> {
-            // First replace any legacy chars with &
-            String mutableLine = convertLegacyHex(line.replace(NameTags.LEGACY_CHAR, '&'));
-
-            // Convert legacy to modern formatting
-            mutableLine = convertLegacyHexToMiniMessage(mutableLine);
-            mutableLine = mutableLine
-                .replace("&0", "<black>")
-                .replace("&1", "<dark_blue>")
-                .replace("&2", "<dark_green>")
-                .replace("&3", "<dark_aqua>")
-                .replace("&4", "<dark_red>")
-                .replace("&5", "<dark_purple>")
-                .replace("&6", "<gold>")
-                .replace("&7", "<gray>")
-                .replace("&8", "<dark_gray>")
-                .replace("&9", "<blue>")
-                .replace("&a", "<green>")
-                .replace("&b", "<aqua>")
-                .replace("&c", "<red>")
-                .replace("&d", "<light_purple>")
-                .replace("&e", "<yellow>")
-                .replace("&f", "<white>")
-                .replace("&k", "<obf>")
-                .replace("&l", "<b>")
-                .replace("&m", "<st>")
-                .replace("&n", "<u>")
-                .replace("&o", "<i>")
-                .replace("&r", "<reset>");
-
-            return MINI_MESSAGE.format(mutableLine);
-        }
+        // Parsed directly, the converted line shouldn't take up space in the MiniMessage cache
+        LegacyLexer::smart
     )
     ;
 
@@ -79,6 +50,9 @@ public enum TextFormatter {
         return result.toString();
     }
 
+    // Legacy hex color codes, &# followed by 6 hexadecimal characters
+    private static final Pattern MODERN_HEX_PATTERN = Pattern.compile("&#([0-9a-fA-F]{6})");
+
     /**
      * Converts Minecraft legacy hex color codes (&#RRGGBB) to MiniMessage format (<#RRGGBB>).
      *
@@ -90,9 +64,7 @@ public enum TextFormatter {
             return legacyText;
         }
 
-        // Regex to match legacy hex color codes (&# followed by 6 hexadecimal characters)
-        Pattern legacyHexPattern = Pattern.compile("&#([0-9a-fA-F]{6})");
-        Matcher matcher = legacyHexPattern.matcher(legacyText);
+        Matcher matcher = MODERN_HEX_PATTERN.matcher(legacyText);
 
         StringBuilder convertedText = new StringBuilder();
 
@@ -120,8 +92,13 @@ public enum TextFormatter {
         return legacy;
     }
 
+    // Number of distinct resolved lines remembered per formatter
+    private static final int CACHE_CAPACITY = 4096;
+
     private final @NotNull String identifier;
     private final @NotNull Function<String, Component> formatter;
+    private final @NotNull Function<String, Component> loader = this::load;
+    private final @NotNull ComponentCache cache = new ComponentCache(CACHE_CAPACITY);
 
     TextFormatter(@NotNull String identifier, @NotNull Function<String, Component> formatter) {
         this.identifier = identifier;
@@ -129,7 +106,20 @@ public enum TextFormatter {
     }
 
     public @NotNull Component format(@NotNull String line) {
-        return formatter.apply(line);
+        return cache.get(line, loader);
+    }
+
+    // Only cache misses are timed, hits don't do any formatting
+    private @NotNull Component load(@NotNull String line) {
+        final long start = Metrics.start();
+        final Component component = formatter.apply(line);
+
+        Metrics.record(Stage.FORMAT, start);
+        return component;
+    }
+
+    public @NotNull ComponentCache getCache() {
+        return cache;
     }
 
     public static @NotNull Optional<TextFormatter> getById(@NotNull String identifier) {
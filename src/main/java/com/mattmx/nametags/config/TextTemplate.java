@@ -0,0 +1,328 @@
+package com.mattmx.nametags.config;
+
+import com.mattmx.nametags.NameTags;
+import com.mattmx.nametags.hook.PapiHook;
+import com.mattmx.nametags.hook.PlaceholderResolver;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.TextComponent;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The {@code text} lines of a config section, compiled once on load.
+ * <p>
+ * Lines without placeholders are parsed a single time and reused forever. Lines with placeholders are split
+ * into literal parts and placeholder slots, and a {@link Renderer} only re-parses a line when one of its
+ * slots resolved to something different from last time.
+ */
+public class TextTemplate {
+    // Same shape PlaceholderAPI uses to find placeholders
+    private static final Pattern PLACEHOLDER_PATTERN = Pattern.compile("%([^%]+)%");
+    private static final String RELATIONAL_PREFIX = "rel_";
+    private static final Pattern RELATIONAL_PATTERN = Pattern.compile("%" + RELATIONAL_PREFIX + "[^%]+%");
+
+    private final @NotNull List<Line> lines;
+    private final @NotNull String[][] placeholders;
+    private final @NotNull TextFormatter formatter;
+    private final boolean removeEmptyLines;
+    private final boolean relational;
+
+    private TextTemplate(@NotNull List<Line> lines, @NotNull TextFormatter formatter, boolean removeEmptyLines) {
+        this.lines = lines;
+        this.placeholders = lines.stream()
+            .map(Line::placeholders)
+            .toArray(String[][]::new);
+        this.formatter = formatter;
+        this.removeEmptyLines = removeEmptyLines;
+        this.relational = lines.stream().anyMatch(Line::relational);
+    }
+
+    public static @NotNull TextTemplate compile(@NotNull List<String> rawLines, @NotNull TextFormatter formatter, boolean removeEmptyLines) {
+        final List<Line> lines = new ArrayList<>(rawLines.size());
+
+        for (final String raw : rawLines) {
+            lines.add(compileLine(raw, formatter));
+        }
+
+        return new TextTemplate(List.copyOf(lines), formatter, removeEmptyLines);
+    }
+
+    private static @NotNull Line compileLine(@NotNull String raw, @NotNull TextFormatter formatter) {
+        final Matcher matcher = PLACEHOLDER_PATTERN.matcher(raw);
+        final List<String> literals = new ArrayList<>();
+        final List<String> placeholders = new ArrayList<>();
+        final StringBuilder literal = new StringBuilder();
+        boolean relational = false;
+        int last = 0;
+
+        while (matcher.find()) {
+            literal.append(raw, last, matcher.start());
+            last = matcher.end();
+
+            // Relational placeholders need a viewer so they stay in the source as-is, see formatBase
+            if (matcher.group(1).startsWith(RELATIONAL_PREFIX)) {
+                relational = true;
+                literal.append(matcher.group());
+                continue;
+            }
+
+            literals.add(literal.toString());
+            placeholders.add(matcher.group());
+            literal.setLength(0);
+        }
+        literal.append(raw, last, raw.length());
+        literals.add(literal.toString());
+
+        if (placeholders.isEmpty()) {
+            return new Line(raw, null, null, formatBase(raw, relational, formatter), relational);
+        }
+
+        return new Line(
+            raw,
+            literals.toArray(String[]::new),
+            placeholders.toArray(String[]::new),
+            null,
+            relational
+        );
+    }
+
+    /**
+     * Formats the text every viewer gets before their relational text is rendered, with relational
+     * placeholders left blank rather than showing up raw.
+     */
+    private static @NotNull Component formatBase(@NotNull String line, boolean relational, @NotNull TextFormatter formatter) {
+        return formatter.format(relational ? RELATIONAL_PATTERN.matcher(line).replaceAll("") : line);
+    }
+
+    public @NotNull Renderer newRenderer() {
+        return new Renderer();
+    }
+
+    /**
+     * Resolves every placeholder slot for a player. Has to run where it is safe to read the player's state,
+     * slow placeholders are waited for later in {@link PlaceholderResolver.Resolution#await()}.
+     *
+     * @param self the player the placeholders are resolved for
+     * @return the values of each line's slots
+     */
+    public @NotNull PlaceholderResolver.Resolution resolve(@NotNull Player self) {
+        return NameTags.getInstance()
+            .getPlaceholderResolver()
+            .resolve(self, placeholders);
+    }
+
+    public @NotNull List<Line> getLines() {
+        return lines;
+    }
+
+    public @NotNull TextFormatter getFormatter() {
+        return formatter;
+    }
+
+    /**
+     * @return true if any line contains relational placeholders
+     */
+    public boolean isRelational() {
+        return relational;
+    }
+
+    /**
+     * @param raw          the line as written in the config
+     * @param literals     literal text around each slot, always one longer than {@code placeholders}
+     * @param placeholders placeholder slots including their {@code %} delimiters
+     * @param component    the pre-parsed line if it has no slots, with any relational placeholders blanked
+     * @param relational   whether the line contains relational placeholders
+     */
+    public record Line(
+        @NotNull String raw,
+        @Nullable String[] literals,
+        @Nullable String[] placeholders,
+        @Nullable Component component,
+        boolean relational
+    ) {
+        public boolean isStatic() {
+            return component != null;
+        }
+    }
+
+    /**
+     * Per-tag render state for a template. Not thread safe, callers should synchronize on the tag.
+     */
+    public class Renderer {
+        private final @NotNull String[][] values = new String[lines.size()][];
+        private final @NotNull String[] resolved = new String[lines.size()];
+        private final @NotNull Component[] components = new Component[lines.size()];
+        private @Nullable Component text = null;
+        private @Nullable RelationalSource relationalSource = null;
+        private boolean rendered = false;
+
+        /**
+         * Resolves placeholders and re-renders any lines that changed.
+         *
+         * @param self the player the placeholders are resolved for
+         * @return true if the composed text changed since the last render
+         */
+        public boolean render(@NotNull Player self) {
+            return render(resolve(self).await());
+        }
+
+        /**
+         * Re-renders any lines whose placeholders resolved differently, without touching the player.
+         *
+         * @param slotValues the awaited result of {@link TextTemplate#resolve(Player)}, the renderer takes ownership of it
+         * @return true if the composed text changed since the last render
+         */
+        public boolean render(@NotNull String[][] slotValues) {
+            boolean changed = !rendered;
+
+            for (int i = 0; i < lines.size(); i++) {
+                final Line line = lines.get(i);
+
+                if (line.isStatic()) {
+                    if (components[i] == null) {
+                        components[i] = line.component();
+                        resolved[i] = line.raw();
+                        changed = true;
+                    }
+                    continue;
+                }
+
+                if (renderLine(i, line, slotValues[i])) {
+                    changed = true;
+                }
+            }
+
+            if (!changed) return false;
+
+            text = compose(components);
+            relationalSource = null;
+            rendered = true;
+            return true;
+        }
+
+        private boolean renderLine(int index, @NotNull Line line, @NotNull String[] lineValues) {
+            final String[] placeholders = line.placeholders();
+            final String[] literals = line.literals();
+            assert placeholders != null && literals != null;
+
+            if (Arrays.equals(values[index], lineValues)) return false;
+
+            values[index] = lineValues;
+
+            final StringBuilder builder = new StringBuilder(line.raw().length());
+            for (int slot = 0; slot < placeholders.length; slot++) {
+                builder.append(literals[slot]).append(lineValues[slot]);
+            }
+            builder.append(literals[placeholders.length]);
+
+            final String resolvedLine = builder.toString();
+            final Component component = formatBase(resolvedLine, line.relational(), formatter);
+
+            resolved[index] = resolvedLine;
+
+            // A cache hit hands back the same instance, e.g a value that flipped back to what it was before
+            if (component == components[index]) return false;
+
+            components[index] = component;
+            return true;
+        }
+
+        /**
+         * A copy of the last {@link #render(Player)} that relational text can be rendered from without
+         * holding the tag's lock. Reused until the text next changes.
+         *
+         * @return the copy, or null if nothing was rendered yet
+         */
+        public @Nullable RelationalSource getRelationalSource() {
+            if (!rendered) return null;
+
+            RelationalSource source = relationalSource;
+            if (source == null) {
+                source = relationalSource = new RelationalSource(text, resolved.clone(), components.clone());
+            }
+            return source;
+        }
+
+        /**
+         * @return the most recently rendered text, or null if every line was removed
+         */
+        public @Nullable Component getText() {
+            return text;
+        }
+
+        /**
+         * @return the placeholder-resolved source string of each line from the last render
+         */
+        public @NotNull String[] getResolvedLines() {
+            return resolved;
+        }
+
+        public @NotNull TextTemplate getTemplate() {
+            return TextTemplate.this;
+        }
+    }
+
+    /**
+     * The rendered lines of one version of a tag's text, immutable so any thread can render relational
+     * placeholders on top of them.
+     */
+    public class RelationalSource {
+        private final @Nullable Component base;
+        private final @NotNull String[] resolved;
+        private final @NotNull Component[] components;
+
+        private RelationalSource(@Nullable Component base, @NotNull String[] resolved, @NotNull Component[] components) {
+            this.base = base;
+            this.resolved = resolved;
+            this.components = components;
+        }
+
+        /**
+         * Renders the text as seen by a specific viewer. Lines without relational placeholders are reused
+         * as-is. Relational placeholders read both players, so this has to run where that is safe.
+         *
+         * @param from the owner of the tag
+         * @param to   the viewer
+         * @return the text for that viewer, or null if every line was removed
+         */
+        public @Nullable Component render(@NotNull Player from, @NotNull Player to) {
+            final Component[] relational = new Component[components.length];
+
+            for (int i = 0; i < lines.size(); i++) {
+                relational[i] = lines.get(i).relational()
+                    ? formatter.format(PapiHook.setRelationalPlaceholders(from, to, resolved[i]))
+                    : components[i];
+            }
+
+            return compose(relational);
+        }
+
+        /**
+         * @return the shared text these lines composed to, with relational placeholders blanked
+         */
+        public @Nullable Component getBase() {
+            return base;
+        }
+    }
+
+    private @Nullable Component compose(@NotNull Component[] parts) {
+        Component composed = null;
+
+        for (final Component line : parts) {
+            if (removeEmptyLines && !TextComponent.IS_NOT_EMPTY.test(line)) continue;
+
+            composed = composed == null
+                ? line
+                : composed.append(Component.newline()).append(line);
+        }
+
+        return composed;
+    }
+}
@@ -0,0 +1,303 @@
+package com.mattmx.nametags.data;
+
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Keeps the players who toggled name tags off in memory and writes changes behind.
+ * <p>
+ * Toggling only updates a concurrent set and marks the player dirty. A repeating async task appends
+ * the dirty entries to {@code toggles.journal} as {@code +uuid} / {@code -uuid} lines, and once the
+ * journal grows past the size of the set it is compacted into {@code toggles.dat}. The snapshot is
+ * written to a temp file and atomically renamed, and replaying the journal over either the old or
+ * new snapshot gives the same result, so a crash at any point loses at most the last flush interval.
+ */
+public class TogglePreferenceStore {
+    private static final long FLUSH_INTERVAL_MILLIS = 5000L;
+    private static final int MIN_COMPACT_LINES = 1024;
+
+    private final @NotNull JavaPlugin plugin;
+    private final @NotNull Path snapshotFile;
+    private final @NotNull Path journalFile;
+    private final @NotNull File legacyFile;
+    private final @NotNull Set<UUID> hidden = ConcurrentHashMap.newKeySet();
+    private final @NotNull Map<UUID, Boolean> dirty = new ConcurrentHashMap<>();
+    private @Nullable ScheduledTask task = null;
+    private volatile boolean loaded = false;
+    private int journalLines = 0;
+
+    public TogglePreferenceStore(@NotNull JavaPlugin plugin) {
+        this.plugin = plugin;
+        this.snapshotFile = plugin.getDataFolder().toPath().resolve("toggles.dat");
+        this.journalFile = plugin.getDataFolder().toPath().resolve("toggles.journal");
+        this.legacyFile = new File(plugin.getDataFolder(), "data.yml");
+    }
+
+    public void start() {
+        if (this.task != null) return;
+
+        this.task = Bukkit.getAsyncScheduler()
+            .runAtFixedRate(plugin, (task) -> flush(), FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Cancels the flush task and writes out anything still pending.
+     */
+    public void stop() {
+        if (this.task != null) {
+            this.task.cancel();
+            this.task = null;
+        }
+
+        if (!loaded) {
+            load();
+        }
+        flush();
+    }
+
+    /**
+     * Lock-free and allocation-free, safe to call from netty threads.
+     */
+    public boolean isHidden(@NotNull UUID uuid) {
+        return hidden.contains(uuid);
+    }
+
+    public void setHidden(@NotNull UUID uuid, boolean hidden) {
+        final boolean changed = hidden
+            ? this.hidden.add(uuid)
+            : this.hidden.remove(uuid);
+
+        // Before loading finishes we can't tell if this differs from disk, so always record it
+        if (changed || !loaded) {
+            dirty.put(uuid, hidden);
+        }
+    }
+
+    public int size() {
+        return hidden.size();
+    }
+
+    public int getPendingCount() {
+        return dirty.size();
+    }
+
+    /**
+     * Loads the stored preferences off the calling thread.
+     *
+     * @return completes once the preferences are readable
+     */
+    public @NotNull CompletableFuture<Void> loadAsync() {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Bukkit.getAsyncScheduler().runNow(plugin, (task) -> {
+            try {
+                load();
+                future.complete(null);
+            } catch (Throwable throwable) {
+                future.completeExceptionally(throwable);
+            }
+        });
+
+        return future;
+    }
+
+    /**
+     * Reads the snapshot and replays the journal, importing the old {@code data.yml} the first time.
+     * <p>
+     * Anything toggled while this runs wins over what was on disk.
+     */
+    public synchronized void load() {
+        final Set<UUID> stored = new HashSet<>();
+        boolean migrated = false;
+        int lines = 0;
+
+        try {
+            Files.createDirectories(snapshotFile.getParent());
+
+            if (Files.exists(snapshotFile)) {
+                for (final String line : Files.readAllLines(snapshotFile, StandardCharsets.UTF_8)) {
+                    final UUID uuid = parseUUID(line);
+
+                    if (uuid != null) {
+                        stored.add(uuid);
+                    }
+                }
+            } else if (legacyFile.exists()) {
+                readLegacy(stored);
+                migrated = true;
+            }
+
+            if (!migrated && Files.exists(journalFile)) {
+                for (final String line : Files.readAllLines(journalFile, StandardCharsets.UTF_8)) {
+                    if (line.length() < 2) continue;
+
+                    final UUID uuid = parseUUID(line.substring(1));
+
+                    if (uuid == null) continue;
+
+                    if (line.charAt(0) == '+') {
+                        stored.add(uuid);
+                    } else if (line.charAt(0) == '-') {
+                        stored.remove(uuid);
+                    }
+                    lines++;
+                }
+            }
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Could not load name tag toggle preferences!", e);
+        }
+
+        for (final UUID uuid : stored) {
+            if (!dirty.containsKey(uuid)) {
+                hidden.add(uuid);
+            }
+        }
+
+        this.journalLines = lines;
+        this.loaded = true;
+
+        if (migrated) {
+            try {
+                compact();
+                Files.move(
+                    legacyFile.toPath(),
+                    legacyFile.toPath().resolveSibling(legacyFile.getName() + ".migrated"),
+                    StandardCopyOption.REPLACE_EXISTING
+                );
+                plugin.getLogger().info("Migrated " + stored.size() + " name tag toggle preferences from data.yml.");
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.SEVERE, "Could not migrate data.yml!", e);
+            }
+        }
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Appends every dirty entry to the journal, compacting it if it has grown too large. The journal is
+     * forced to disk after each batch.
+     */
+    public synchronized void flush() {
+        // Writing before the load finished could compact a partial set over the real snapshot
+        if (!loaded || dirty.isEmpty()) return;
+
+        final Map<UUID, Boolean> drained = new HashMap<>(dirty.size());
+        final List<String> lines = new ArrayList<>(dirty.size());
+
+        for (final Map.Entry<UUID, Boolean> entry : dirty.entrySet()) {
+            // Only clear the entry if it wasn't toggled again while we were draining
+            if (dirty.remove(entry.getKey(), entry.getValue())) {
+                drained.put(entry.getKey(), entry.getValue());
+                lines.add((entry.getValue() ? '+' : '-') + entry.getKey().toString());
+            }
+        }
+
+        try {
+            if (journalLines + lines.size() > Math.max(MIN_COMPACT_LINES, hidden.size())) {
+                compact();
+                return;
+            }
+
+            try (FileChannel channel = FileChannel.open(
+                journalFile,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND
+            )) {
+                final BufferedWriter writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8));
+
+                for (final String line : lines) {
+                    writer.write(line);
+                    writer.newLine();
+                }
+
+                // Otherwise a crash could lose toggles that were already reported as saved
+                writer.flush();
+                channel.force(true);
+            }
+
+            journalLines += lines.size();
+        } catch (IOException e) {
+            // Retried on the next flush, unless they were toggled again in the meantime
+            drained.forEach(dirty::putIfAbsent);
+            plugin.getLogger().log(Level.SEVERE, "Could not save name tag toggle preferences!", e);
+        }
+    }
+
+    /**
+     * Writes the full set to a new snapshot and starts an empty journal. The snapshot is forced to disk
+     * before it replaces the old one, so the rename never exposes a file that isn't fully written.
+     */
+    public synchronized void compact() throws IOException {
+        final Path temp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(
+            temp,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING
+        )) {
+            final BufferedWriter writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8));
+
+            for (final UUID uuid : hidden) {
+                writer.write(uuid.toString());
+                writer.newLine();
+            }
+
+            writer.flush();
+            channel.force(true);
+        }
+
+        Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(journalFile);
+        journalLines = 0;
+    }
+
+    private void readLegacy(@NotNull Set<UUID> into) {
+        final YamlConfiguration data = YamlConfiguration.loadConfiguration(legacyFile);
+
+        for (final String key : data.getKeys(false)) {
+            final UUID uuid = parseUUID(key);
+
+            if (uuid != null && data.getBoolean(key + ".toggle-off", false)) {
+                into.add(uuid);
+            }
+        }
+    }
+
+    private static @Nullable UUID parseUUID(@NotNull String value) {
+        try {
+            return UUID.fromString(value.trim());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
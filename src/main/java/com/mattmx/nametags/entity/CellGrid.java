@@ -0,0 +1,98 @@
+package com.mattmx.nametags.entity;
+
+import org.bukkit.Location;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Coarse position of every online player, in 16x16 block cells.
+ * <p>
+ * Only updated when a player crosses into a new cell, so per-move cost is a couple of shifts and
+ * comparisons. Used to decide whether a viewer is close enough to a tag to need its updates.
+ */
+public final class CellGrid {
+    public static final int CELL_SHIFT = 4;
+
+    private final @NotNull Map<UUID, Cell> cells = new ConcurrentHashMap<>();
+
+    /**
+     * @param uuid     the player
+     * @param location their new location
+     * @return true if they moved into a different cell
+     */
+    public boolean update(@NotNull UUID uuid, @NotNull Location location) {
+        return update(uuid, location.getWorld().getUID(), location.getBlockX(), location.getBlockZ());
+    }
+
+    /**
+     * @param uuid   the player
+     * @param world  the world they are in
+     * @param blockX their new block x
+     * @param blockZ their new block z
+     * @return true if they moved into a different cell
+     */
+    public boolean update(@NotNull UUID uuid, @NotNull UUID world, int blockX, int blockZ) {
+        final int x = blockX >> CELL_SHIFT;
+        final int z = blockZ >> CELL_SHIFT;
+        final Cell previous = cells.get(uuid);
+
+        if (previous != null && previous.x == x && previous.z == z && previous.world.equals(world)) return false;
+
+        cells.put(uuid, new Cell(world, x, z));
+        return true;
+    }
+
+    public void remove(@NotNull UUID uuid) {
+        cells.remove(uuid);
+    }
+
+    public @Nullable Cell get(@NotNull UUID uuid) {
+        return cells.get(uuid);
+    }
+
+    /**
+     * Conservative range check, it may say yes up to one cell further than {@code blocks}.
+     * Anything not in the grid (e.g non-player tag owners) is always in range.
+     *
+     * @param a      first entity
+     * @param b      second entity
+     * @param blocks range in blocks
+     * @return false only if the two are definitely further apart than {@code blocks}
+     */
+    public boolean isWithin(@NotNull UUID a, @NotNull UUID b, double blocks) {
+        final Cell first = cells.get(a);
+        final Cell second = cells.get(b);
+
+        if (first == null || second == null) return true;
+        if (!first.world.equals(second.world)) return false;
+
+        final int range = ((int) Math.ceil(blocks) >> CELL_SHIFT) + 1;
+
+        return Math.abs(first.x - second.x) <= range
+            && Math.abs(first.z - second.z) <= range;
+    }
+
+    /**
+     * How far a tag's updates need to reach. Display entities render up to view range * 64 blocks away,
+     * but nobody further than the tracking range has the entity at all.
+     *
+     * @param viewRange     the tag's view range
+     * @param scale         multiplier on the visible distance, for clients with a raised entity distance
+     * @param trackingRange how far players are tracked in blocks
+     * @return the range in blocks
+     */
+    public static double updateRange(float viewRange, double scale, double trackingRange) {
+        return Math.min(viewRange * 64.0 * scale, trackingRange);
+    }
+
+    public int size() {
+        return cells.size();
+    }
+
+    public record Cell(@NotNull UUID world, int x, int z) {
+    }
+}
@@ -0,0 +1,109 @@
+package com.mattmx.nametags.entity;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Open-addressed {@code int -> T} map used to resolve name tags from entity ids inside packet listeners.
+ * <p>
+ * Writes are rare (join, quit, reload) so they copy the table and publish it through a volatile field.
+ * Reads never lock, box or allocate, which keeps lookups on the netty threads constant-time.
+ *
+ * @param <T> value type
+ */
+public final class EntityIdIndex<T> {
+    private static final int MIN_CAPACITY = 16;
+
+    private volatile @NotNull Table table = new Table(MIN_CAPACITY);
+
+    @SuppressWarnings("unchecked")
+    public @Nullable T get(int key) {
+        final Table table = this.table;
+        final int mask = table.keys.length - 1;
+
+        int slot = mix(key) & mask;
+        while (true) {
+            final Object value = table.values[slot];
+
+            if (value == null) return null;
+            if (table.keys[slot] == key) return (T) value;
+
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    public synchronized void put(int key, @NotNull T value) {
+        final Table current = this.table;
+        final int size = current.size + (get(key) == null ? 1 : 0);
+
+        // Keep the load factor at or below 0.5 so probe chains stay short
+        int capacity = current.keys.length;
+        while (size * 2 > capacity) {
+            capacity <<= 1;
+        }
+
+        final Table copy = new Table(capacity);
+        copy.copyFrom(current, key);
+        copy.insert(key, value);
+
+        this.table = copy;
+    }
+
+    public synchronized boolean remove(int key, @NotNull T expected) {
+        final Table current = this.table;
+
+        if (get(key) != expected) return false;
+
+        int capacity = current.keys.length;
+        while (capacity > MIN_CAPACITY && (current.size - 1) * 8 < capacity) {
+            capacity >>= 1;
+        }
+
+        final Table copy = new Table(capacity);
+        copy.copyFrom(current, key);
+
+        this.table = copy;
+        return true;
+    }
+
+    public int size() {
+        return this.table.size;
+    }
+
+    private static int mix(int key) {
+        final int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static final class Table {
+        private final int[] keys;
+        private final Object[] values;
+        private int size;
+
+        private Table(int capacity) {
+            this.keys = new int[capacity];
+            this.values = new Object[capacity];
+        }
+
+        private void copyFrom(@NotNull Table other, int skipKey) {
+            for (int i = 0; i < other.keys.length; i++) {
+                if (other.values[i] != null && other.keys[i] != skipKey) {
+                    insert(other.keys[i], other.values[i]);
+                }
+            }
+        }
+
+        private void insert(int key, @NotNull Object value) {
+            final int mask = keys.length - 1;
+
+            int slot = mix(key) & mask;
+            while (values[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+
+            keys[slot] = key;
+            values[slot] = value;
+            size++;
+        }
+    }
+}
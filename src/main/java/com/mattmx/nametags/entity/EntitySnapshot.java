@@ -0,0 +1,102 @@
+package com.mattmx.nametags.entity;
+
+import com.github.retrooper.packetevents.protocol.world.Location;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.potion.PotionEffectType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * The live entity state a tag needs, copied on the entity's own thread so other threads never have
+ * to read it from Bukkit.
+ *
+ * @param x          where the tag sits
+ * @param y          where the tag sits, the top of the entity's current hitbox
+ * @param z          where the tag sits
+ * @param invisible  whether the entity is invisible or has the invisibility effect
+ * @param passengers the entity ids of whatever rides the entity, without the tag. Not to be modified
+ */
+public record EntitySnapshot(double x, double y, double z, boolean invisible, int @NotNull [] passengers) {
+    private static final int[] NO_PASSENGERS = new int[0];
+
+    /**
+     * Copies an entity's state, allocating only when it changed since {@code previous}. An entity that
+     * stands still with the same passengers gets {@code previous} back and costs nothing.
+     * <p>
+     * The height is the server's own hitbox height, which it only recomputes when the entity's pose
+     * or scale changes, so crouching, swimming and scaled entities are placed right for free.
+     * <p>
+     * Bukkit builds a new list whenever passengers are read, so they are only read when a mount or
+     * dismount marked them as changed. Otherwise {@code previous}'s are kept.
+     *
+     * @param entity         the entity, on its own thread
+     * @param scratch        reused to read the location into
+     * @param previous       the last snapshot of this entity
+     * @param readPassengers whether the passengers may have changed since {@code previous}
+     * @return {@code previous} if nothing changed, otherwise a new snapshot
+     */
+    static @NotNull EntitySnapshot capture(
+        @NotNull Entity entity,
+        @NotNull org.bukkit.Location scratch,
+        @Nullable EntitySnapshot previous,
+        boolean readPassengers
+    ) {
+        entity.getLocation(scratch);
+
+        final double x = scratch.getX();
+        final double y = scratch.getY() + entity.getHeight();
+        final double z = scratch.getZ();
+        final boolean invisible = isInvisible(entity);
+        final List<Entity> riding = readPassengers || previous == null ? entity.getPassengers() : null;
+
+        if (previous != null
+            && previous.x == x
+            && previous.y == y
+            && previous.z == z
+            && previous.invisible == invisible
+            && (riding == null || samePassengers(previous.passengers, riding))) {
+            return previous;
+        }
+
+        return new EntitySnapshot(x, y, z, invisible, riding == null ? previous.passengers : passengerIds(riding));
+    }
+
+    private static boolean samePassengers(int @NotNull [] ids, @NotNull List<Entity> riding) {
+        if (ids.length != riding.size()) return false;
+
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] != riding.get(i).getEntityId()) return false;
+        }
+
+        return true;
+    }
+
+    private static int @NotNull [] passengerIds(@NotNull List<Entity> riding) {
+        if (riding.isEmpty()) return NO_PASSENGERS;
+
+        final int[] ids = new int[riding.size()];
+
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = riding.get(i).getEntityId();
+        }
+
+        return ids;
+    }
+
+    static boolean isInvisible(@NotNull Entity entity) {
+        boolean hasInvisibilityEffect = entity instanceof LivingEntity e
+            && e.hasPotionEffect(PotionEffectType.INVISIBILITY);
+
+        return entity.isInvisible() || hasInvisibilityEffect;
+    }
+
+    /**
+     * Builds a new location, callers keep it for as long as the snapshot is current.
+     */
+    public @NotNull Location toLocation() {
+        return new Location(x, y, z, 0f, 0f);
+    }
+}
@@ -0,0 +1,58 @@
+package com.mattmx.nametags.entity;
+
+import com.github.retrooper.packetevents.PacketEvents;
+import com.github.retrooper.packetevents.protocol.entity.data.EntityData;
+import com.github.retrooper.packetevents.protocol.entity.data.EntityDataTypes;
+import com.github.retrooper.packetevents.manager.server.ServerVersion;
+import com.github.retrooper.packetevents.manager.server.VersionComparison;
+import com.github.retrooper.packetevents.protocol.player.ClientVersion;
+import com.github.retrooper.packetevents.util.Vector3f;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * Backwards compatibility for clients older than 1.20.2.
+ * Mojank changed the passenger origin point when riding an entity so the tag appears inside their head.
+ */
+public final class LegacyTranslation {
+    // Resolved once, the server version can't change at runtime
+    public static final byte INDEX = PacketEvents.getAPI()
+        .getServerManager()
+        .getVersion()
+        .is(VersionComparison.OLDER_THAN, ServerVersion.V_1_20_2)
+        ? (byte) 10
+        : (byte) 11;
+    public static final @NotNull Vector3f OFFSET = new Vector3f(0f, 0.4f, 0f);
+
+    private LegacyTranslation() {
+    }
+
+    public static boolean appliesTo(@NotNull ClientVersion version) {
+        return version.isOlderThan(ClientVersion.V_1_20_2);
+    }
+
+    public static @NotNull Vector3f apply(@NotNull Vector3f translation) {
+        return translation.add(OFFSET);
+    }
+
+    /**
+     * Offsets the translation of a metadata update, if it has one. The entry is replaced rather than
+     * changed, since the same entries may be shared with other viewers.
+     *
+     * @param entries the update's entries
+     * @return true if the translation was part of the update
+     */
+    public static boolean apply(@NotNull List<EntityData> entries) {
+        for (int i = 0; i < entries.size(); i++) {
+            final EntityData data = entries.get(i);
+
+            if (data.getIndex() != INDEX || !(data.getValue() instanceof Vector3f translation)) continue;
+
+            entries.set(i, new EntityData(INDEX, EntityDataTypes.VECTOR3F, apply(translation)));
+            return true;
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,167 @@
+package com.mattmx.nametags.entity;
+
+import com.github.retrooper.packetevents.PacketEvents;
+import com.github.retrooper.packetevents.manager.protocol.ProtocolManager;
+import com.github.retrooper.packetevents.netty.buffer.ByteBufHelper;
+import com.github.retrooper.packetevents.protocol.entity.data.EntityData;
+import com.github.retrooper.packetevents.protocol.entity.data.EntityDataTypes;
+import com.github.retrooper.packetevents.protocol.player.User;
+import com.github.retrooper.packetevents.util.Vector3f;
+import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerEntityMetadata;
+import com.mattmx.nametags.NameTags;
+import com.mattmx.nametags.OutgoingPacketListener;
+import net.kyori.adventure.text.Component;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A single metadata update for a tag, serialized at most once per client variant and shared by every
+ * viewer of that variant through reference counted duplicates of the same buffer.
+ * <p>
+ * Clients older than 1.20.2 and viewers of relational text get variants built straight from the entries,
+ * and everything is sent silently, so the packet listener never has to decode and re-encode these.
+ */
+final class MetadataBroadcast {
+    private static final @NotNull LongAdder ENCODED = new LongAdder();
+    private static final @NotNull LongAdder SHARED = new LongAdder();
+
+    private final int entityId;
+    private final @NotNull List<EntityData> entries;
+    private final @Nullable Function<UUID, Component> relationalText;
+    private final boolean hasText;
+    private final boolean hasTranslation;
+    private @Nullable Object modern = null;
+    private @Nullable Object legacy = null;
+
+    /**
+     * @param entityId       the display entity
+     * @param entries        the metadata to send
+     * @param relationalText per-viewer text to swap in, or null if the tag has no relational placeholders
+     */
+    MetadataBroadcast(int entityId, @NotNull List<EntityData> entries, @Nullable Function<UUID, Component> relationalText) {
+        this.entityId = entityId;
+        this.entries = entries;
+        this.relationalText = relationalText;
+
+        boolean hasText = false;
+        boolean hasTranslation = false;
+        for (final EntityData data : entries) {
+            hasText |= data.getIndex() == OutgoingPacketListener.TEXT_DISPLAY_TEXT_INDEX;
+            hasTranslation |= data.getIndex() == LegacyTranslation.INDEX;
+        }
+
+        this.hasText = hasText;
+        this.hasTranslation = hasTranslation;
+    }
+
+    void send(@NotNull UUID viewer) {
+        final ProtocolManager protocol = PacketEvents.getAPI().getProtocolManager();
+        final Object channel = protocol.getChannel(viewer);
+        final User user = channel == null ? null : protocol.getUser(channel);
+
+        if (user == null) return;
+
+        // Older clients only need their own variant if the translation is part of this update
+        final boolean legacyClient = hasTranslation && LegacyTranslation.appliesTo(user.getClientVersion());
+
+        if (hasText && relationalText != null) {
+            final Component text = relationalText.apply(viewer);
+
+            if (text != null) {
+                enqueue(viewer, encode(channel, variant(legacyClient, text)));
+                return;
+            }
+        }
+
+        final Object shared;
+        if (legacyClient) {
+            shared = legacy == null ? legacy = encode(channel, variant(true, null)) : legacy;
+        } else {
+            shared = modern == null ? modern = encode(channel, entries) : modern;
+        }
+
+        SHARED.increment();
+        enqueue(viewer, ByteBufHelper.retainedDuplicate(shared));
+    }
+
+    /**
+     * Drops this broadcast's own reference to the shared buffers, queued duplicates keep them alive.
+     */
+    void release() {
+        if (modern != null) {
+            ByteBufHelper.release(modern);
+            modern = null;
+        }
+
+        if (legacy != null) {
+            ByteBufHelper.release(legacy);
+            legacy = null;
+        }
+    }
+
+    private @NotNull List<EntityData> variant(boolean legacyClient, @Nullable Component text) {
+        final List<EntityData> variant = new ArrayList<>(entries.size());
+
+        for (final EntityData data : entries) {
+            if (text != null && data.getIndex() == OutgoingPacketListener.TEXT_DISPLAY_TEXT_INDEX) {
+                variant.add(new EntityData(data.getIndex(), EntityDataTypes.ADV_COMPONENT, text));
+            } else if (legacyClient && data.getIndex() == LegacyTranslation.INDEX) {
+                variant.add(new EntityData(data.getIndex(), EntityDataTypes.VECTOR3F, LegacyTranslation.apply((Vector3f) data.getValue())));
+            } else {
+                variant.add(data);
+            }
+        }
+
+        return variant;
+    }
+
+    /**
+     * The full metadata a client older than 1.20.2 should see when the entity is spawned for them.
+     *
+     * @return a new list owned by the caller
+     */
+    @NotNull List<EntityData> legacySpawnVariant() {
+        final List<EntityData> variant = variant(true, null);
+
+        // A default translation isn't sent at all, but old clients still need the offset
+        if (!hasTranslation) {
+            variant.add(new EntityData(LegacyTranslation.INDEX, EntityDataTypes.VECTOR3F, LegacyTranslation.OFFSET));
+        }
+
+        return variant;
+    }
+
+    private @NotNull Object encode(@NotNull Object channel, @NotNull List<EntityData> entries) {
+        final WrapperPlayServerEntityMetadata packet = new WrapperPlayServerEntityMetadata(entityId, entries);
+
+        packet.prepareForSend(channel, true);
+        ENCODED.increment();
+        return packet.getBuffer();
+    }
+
+    private static void enqueue(@NotNull UUID viewer, @NotNull Object buffer) {
+        NameTags.getInstance()
+            .getPacketBatcher()
+            .enqueueEncoded(viewer, buffer);
+    }
+
+    /**
+     * @return how many metadata packets were serialized
+     */
+    static long getEncodedCount() {
+        return ENCODED.sum();
+    }
+
+    /**
+     * @return how many sends reused an already serialized buffer
+     */
+    static long getSharedCount() {
+        return SHARED.sum();
+    }
+}
@@ -0,0 +1,294 @@
+package com.mattmx.nametags.entity;
+
+import com.github.retrooper.packetevents.protocol.entity.data.EntityData;
+import me.tofaa.entitylib.wrapper.WrapperEntity;
+import net.kyori.adventure.text.Component;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Remembers the metadata values last sent for a tag's display entity so a flush only sends the indices
+ * that changed since, or nothing at all.
+ * <p>
+ * Viewers that are out of range when a flush happens are skipped and remembered as stale. They are sent
+ * the full current metadata once they come back into range.
+ */
+public class MetadataTracker {
+    private static final @NotNull LongAdder SENT = new LongAdder();
+    private static final @NotNull LongAdder SUPPRESSED = new LongAdder();
+    private static final @NotNull LongAdder OUT_OF_RANGE = new LongAdder();
+    private static final @NotNull LongAdder CAUGHT_UP = new LongAdder();
+
+    private final @NotNull Set<UUID> stale = new HashSet<>();
+    // Read from netty, so not guarded by the tracker's lock
+    private final @NotNull Set<UUID> spawning = ConcurrentHashMap.newKeySet();
+    private @NotNull Object[] flushed = new Object[32];
+    private @Nullable List<EntityData> legacySpawnMeta = null;
+    private @Nullable List<EntityData> legacySpawnEntries = null;
+    private long dirtyMask = 0L;
+
+    /**
+     * Sends the changed metadata indices of the passenger to all of its viewers.
+     *
+     * @param passenger the display entity
+     * @return true if a packet was sent
+     */
+    public boolean flush(@NotNull WrapperEntity passenger) {
+        return flush(passenger, null, null);
+    }
+
+    /**
+     * Sends the changed metadata indices of the passenger to the viewers in range.
+     *
+     * @param passenger      the display entity
+     * @param inRange        which viewers should get the update, or null for all of them
+     * @param relationalText per-viewer text to send instead of the shared text, or null
+     * @return true if a packet was sent
+     */
+    public synchronized boolean flush(
+        @NotNull WrapperEntity passenger,
+        @Nullable Predicate<UUID> inRange,
+        @Nullable Function<UUID, Component> relationalText
+    ) {
+        final List<EntityData> entries = passenger.getEntityMeta()
+            .createPacket()
+            .getEntityMetadata();
+
+        final List<EntityData> changed = collectChanged(entries);
+
+        if (changed == null) {
+            SUPPRESSED.increment();
+            return false;
+        }
+
+        SENT.increment();
+        final MetadataBroadcast broadcast = new MetadataBroadcast(passenger.getEntityId(), changed, relationalText);
+        MetadataBroadcast full = null;
+
+        try {
+            if (inRange == null) {
+                stale.clear();
+                for (final UUID viewer : passenger.getViewers()) {
+                    broadcast.send(viewer);
+                }
+                return true;
+            }
+
+            for (final UUID viewer : passenger.getViewers()) {
+                if (!inRange.test(viewer)) {
+                    stale.add(viewer);
+                    OUT_OF_RANGE.increment();
+                } else if (stale.remove(viewer)) {
+                    if (full == null) {
+                        full = new MetadataBroadcast(passenger.getEntityId(), entries, relationalText);
+                    }
+                    CAUGHT_UP.increment();
+                    full.send(viewer);
+                } else {
+                    broadcast.send(viewer);
+                }
+            }
+            return true;
+        } finally {
+            broadcast.release();
+            if (full != null) {
+                full.release();
+            }
+        }
+    }
+
+    /**
+     * Sends the full current metadata to a viewer that missed updates while out of range.
+     *
+     * @param passenger      the display entity
+     * @param viewer         the viewer
+     * @param relationalText per-viewer text to send instead of the shared text, or null
+     * @return true if the viewer was stale
+     */
+    public synchronized boolean catchUp(
+        @NotNull WrapperEntity passenger,
+        @NotNull UUID viewer,
+        @Nullable Function<UUID, Component> relationalText
+    ) {
+        if (!stale.remove(viewer)) return false;
+
+        final MetadataBroadcast full = new MetadataBroadcast(
+            passenger.getEntityId(),
+            passenger.getEntityMeta().createPacket().getEntityMetadata(),
+            relationalText
+        );
+
+        CAUGHT_UP.increment();
+        full.send(viewer);
+        full.release();
+        return true;
+    }
+
+    /**
+     * The full metadata for a client older than 1.20.2, with the translation offset already applied.
+     * Kept until the metadata next changes, so spawning the tag for many old clients builds it once.
+     * <p>
+     * Changes that never go through {@link #flush}, e.g tags created through the API that let EntityLib
+     * send their updates, are noticed by comparing against the entries it was built from.
+     *
+     * @param passenger the display entity
+     * @return a new list owned by the caller
+     */
+    public synchronized @NotNull List<EntityData> getLegacySpawnMeta(@NotNull WrapperEntity passenger) {
+        final List<EntityData> entries = passenger.getEntityMeta().createPacket().getEntityMetadata();
+
+        if (legacySpawnMeta == null || !sameValues(entries, legacySpawnEntries)) {
+            legacySpawnMeta = List.copyOf(new MetadataBroadcast(passenger.getEntityId(), entries, null).legacySpawnVariant());
+            legacySpawnEntries = entries;
+        }
+
+        return new ArrayList<>(legacySpawnMeta);
+    }
+
+    /**
+     * Marks the next metadata packet the viewer gets for the tag as its spawn metadata. Has to be called
+     * before the tag is spawned for them.
+     *
+     * @param viewer the viewer
+     */
+    public void spawning(@NotNull UUID viewer) {
+        spawning.add(viewer);
+    }
+
+    /**
+     * Safe to call from netty.
+     *
+     * @param viewer the viewer
+     * @return true if this is the viewer's spawn metadata, only once per spawn
+     */
+    public boolean takeSpawning(@NotNull UUID viewer) {
+        return spawning.remove(viewer);
+    }
+
+    public synchronized boolean isStale(@NotNull UUID viewer) {
+        return stale.contains(viewer);
+    }
+
+    public synchronized @NotNull Set<UUID> getStale() {
+        return Set.copyOf(stale);
+    }
+
+    /**
+     * Drops any stale state for a viewer, e.g when they stop viewing or get a fresh spawn.
+     */
+    public synchronized void forget(@NotNull UUID viewer) {
+        stale.remove(viewer);
+        spawning.remove(viewer);
+    }
+
+    /**
+     * Forgets what was sent, so the next flush sends every index again.
+     */
+    public synchronized void reset() {
+        legacySpawnMeta = null;
+        legacySpawnEntries = null;
+        Arrays.fill(flushed, null);
+        dirtyMask = 0L;
+        stale.clear();
+    }
+
+    /**
+     * @return bit mask of the indices sent by the most recent flush
+     */
+    public synchronized long getLastDirtyMask() {
+        return dirtyMask;
+    }
+
+    private static boolean sameValues(@NotNull List<EntityData> entries, @Nullable List<EntityData> previous) {
+        if (previous == null || entries.size() != previous.size()) return false;
+
+        for (int i = 0; i < entries.size(); i++) {
+            final EntityData data = entries.get(i);
+            final EntityData other = previous.get(i);
+
+            if (data.getIndex() != other.getIndex() || !Objects.equals(data.getValue(), other.getValue())) return false;
+        }
+
+        return true;
+    }
+
+    private @Nullable List<EntityData> collectChanged(@NotNull List<EntityData> entries) {
+        List<EntityData> changed = null;
+        long mask = 0L;
+
+        for (final EntityData data : entries) {
+            final int index = data.getIndex();
+
+            if (index >= flushed.length) {
+                flushed = Arrays.copyOf(flushed, index + 1);
+            }
+
+            if (Objects.equals(flushed[index], data.getValue())) continue;
+
+            flushed[index] = data.getValue();
+            mask |= 1L << (index & 63);
+
+            if (changed == null) {
+                changed = new ArrayList<>(4);
+            }
+            changed.add(data);
+        }
+
+        this.dirtyMask = mask;
+        return changed;
+    }
+
+    /**
+     * @return how many flushes sent a metadata packet
+     */
+    public static long getSentCount() {
+        return SENT.sum();
+    }
+
+    /**
+     * @return how many flushes had nothing to send
+     */
+    public static long getSuppressedCount() {
+        return SUPPRESSED.sum();
+    }
+
+    /**
+     * @return how many per-viewer sends were skipped because the viewer was out of range
+     */
+    public static long getOutOfRangeCount() {
+        return OUT_OF_RANGE.sum();
+    }
+
+    /**
+     * @return how many full metadata packets were sent to viewers coming back into range
+     */
+    public static long getCaughtUpCount() {
+        return CAUGHT_UP.sum();
+    }
+
+    /**
+     * @return how many metadata packets were serialized, at most one per client variant per flush
+     */
+    public static long getEncodedCount() {
+        return MetadataBroadcast.getEncodedCount();
+    }
+
+    /**
+     * @return how many per-viewer sends reused an already serialized buffer
+     */
+    public static long getSharedCount() {
+        return MetadataBroadcast.getSharedCount();
+    }
+}
@@ -1,32 +1,56 @@
 package com.mattmx.nametags.entity;
 
 import com.github.retrooper.packetevents.PacketEvents;
+import com.github.retrooper.packetevents.protocol.entity.data.EntityData;
 import com.github.retrooper.packetevents.protocol.entity.type.EntityTypes;
+import com.github.retrooper.packetevents.protocol.player.User;
 import com.github.retrooper.packetevents.protocol.world.Location;
 import com.github.retrooper.packetevents.wrapper.PacketWrapper;
 import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerSetPassengers;
 import com.mattmx.nametags.NameTags;
+import com.mattmx.nametags.entity.trait.TextTemplateTrait;
 import com.mattmx.nametags.entity.trait.TraitHolder;
-import io.github.retrooper.packetevents.util.SpigotConversionUtil;
 import me.tofaa.entitylib.meta.display.TextDisplayMeta;
 import me.tofaa.entitylib.wrapper.WrapperEntity;
+import net.kyori.adventure.text.Component;
+import org.bukkit.Bukkit;
 import org.bukkit.entity.Entity;
-import org.bukkit.entity.LivingEntity;
 import org.bukkit.entity.Player;
-import org.bukkit.potion.PotionEffectType;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class NameTagEntity {
     private final @NotNull TraitHolder traits = new TraitHolder(this);
     private final @NotNull Entity bukkitEntity;
     private final @NotNull WrapperEntity passenger;
+    private final @NotNull MetadataTracker metadataTracker = new MetadataTracker();
+    private final @NotNull ViewerIndex<NameTagEntity> viewerIndex;
+    private final @NotNull CellGrid cellGrid;
+    private final @NotNull PassengerTable passengerTable;
+    // Only touched on the entity's own thread
+    private final @NotNull org.bukkit.Location scratchLocation = new org.bukkit.Location(null, 0.0, 0.0, 0.0);
     private float cachedViewRange = -1f;
+    private float flushedViewRange = Float.NaN;
+    private volatile @Nullable EntitySnapshot snapshot = null;
+    // The snapshot the tag was last moved to, its location is reused until the entity moves
+    private volatile @Nullable EntitySnapshot placedAt = null;
+    private volatile boolean passengersChanged = true;
 
     public NameTagEntity(@NotNull Entity entity) {
+        this(entity, NameTags.getInstance().getEntityManager());
+    }
+
+    public NameTagEntity(@NotNull Entity entity, @NotNull NameTagEntityManager manager) {
         this.bukkitEntity = entity;
+        this.viewerIndex = manager.getViewerIndex();
+        this.cellGrid = manager.getCellGrid();
+        this.passengerTable = manager.getPassengerTable();
         this.passenger = new WrapperEntity(EntityTypes.TEXT_DISPLAY);
 
         initialize();
@@ -37,21 +61,57 @@ public class NameTagEntity {
 
         this.passenger.spawn(location);
 
-        if (NameTags.getInstance().getConfig().getBoolean("show-self", false)) {
+        if (NameTags.getInstance().getSettings().showSelf()) {
 
             if (this.bukkitEntity instanceof Player self) {
-                this.passenger.addViewer(self.getUniqueId());
+                addViewer(self.getUniqueId());
                 sendPassengerPacket(self);
             }
 
         }
     }
 
+    /**
+     * Copies the entity's current state for other threads to use. Has to run on the entity's own thread.
+     *
+     * @return the new snapshot
+     */
+    public @NotNull EntitySnapshot captureSnapshot() {
+        // Cleared before reading so a mount that lands mid-capture is read again next time
+        final boolean readPassengers = this.passengersChanged;
+        if (readPassengers) this.passengersChanged = false;
+
+        final EntitySnapshot captured = EntitySnapshot.capture(bukkitEntity, this.scratchLocation, this.snapshot, readPassengers);
+
+        this.snapshot = captured;
+        return captured;
+    }
+
+    /**
+     * Makes the next {@link #captureSnapshot()} read the entity's passengers again. Safe to call from any thread.
+     */
+    public void markPassengersChanged() {
+        this.passengersChanged = true;
+    }
+
+    /**
+     * @return the entity state from the most recent {@link #captureSnapshot()}, or null if there hasn't been one
+     */
+    public @Nullable EntitySnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Live state is only read on the entity's own thread, anywhere else this uses the latest snapshot.
+     * Before the first one the tag keeps its current visibility, the next capture corrects it.
+     */
     public boolean isInvisible() {
-        boolean hasInvisibilityEffect = bukkitEntity instanceof LivingEntity e
-            && e.hasPotionEffect(PotionEffectType.INVISIBILITY);
+        if (Bukkit.isOwnedByCurrentRegion(bukkitEntity)) {
+            return EntitySnapshot.isInvisible(bukkitEntity);
+        }
 
-        return bukkitEntity.isInvisible() || hasInvisibilityEffect;
+        final EntitySnapshot current = this.snapshot;
+        return current != null ? current.invisible() : getMeta().isInvisible();
     }
 
     public void updateVisibility() {
@@ -69,6 +129,33 @@ public class NameTagEntity {
         });
     }
 
+    public void addViewer(@NotNull UUID viewer) {
+        // Before spawning, the packet listener may see the spawn metadata straight away
+        this.metadataTracker.forget(viewer);
+        this.metadataTracker.spawning(viewer);
+        this.passenger.addViewer(viewer);
+        this.viewerIndex.add(viewer, this);
+    }
+
+    public void addViewer(@NotNull User user) {
+        this.metadataTracker.forget(user.getUUID());
+        this.metadataTracker.spawning(user.getUUID());
+        this.passenger.addViewer(user);
+        this.viewerIndex.add(user.getUUID(), this);
+    }
+
+    public void removeViewer(@NotNull UUID viewer) {
+        this.passenger.removeViewer(viewer);
+        this.viewerIndex.remove(viewer, this);
+        this.metadataTracker.forget(viewer);
+    }
+
+    public void removeViewer(@NotNull User user) {
+        this.passenger.removeViewer(user);
+        this.viewerIndex.remove(user.getUUID(), this);
+        this.metadataTracker.forget(user.getUUID());
+    }
+
     public @NotNull TraitHolder getTraits() {
         return traits;
     }
@@ -81,29 +168,141 @@ public class NameTagEntity {
         return this.passenger.getEntityMeta(TextDisplayMeta.class);
     }
 
+    /**
+     * Sends only the metadata that changed since the last flush to the tag's viewers that are within
+     * its view range. Viewers further away catch up when they get closer, see {@link #catchUp(UUID)}.
+     *
+     * @return true if anything was sent
+     */
+    public boolean flushMeta() {
+        synchronized (this) {
+            final float viewRange = getMeta().getViewRange();
+
+            // Everyone needs to know when the range itself changes, e.g the tag being hidden
+            if (viewRange != this.flushedViewRange) {
+                this.flushedViewRange = viewRange;
+                return this.metadataTracker.flush(this.passenger, null, relationalText());
+            }
+
+            return this.metadataTracker.flush(this.passenger, this::isInUpdateRange, relationalText());
+        }
+    }
+
+    /**
+     * Sends the latest metadata to a viewer if they missed updates and are now back in range.
+     *
+     * @param viewer the viewer
+     */
+    public void catchUp(@NotNull UUID viewer) {
+        synchronized (this) {
+            if (this.metadataTracker.isStale(viewer) && isInUpdateRange(viewer)) {
+                this.metadataTracker.catchUp(this.passenger, viewer, relationalText());
+            }
+        }
+    }
+
+    /**
+     * Catches up every stale viewer that is now in range, e.g after the owner moved.
+     */
+    public void catchUpAll() {
+        synchronized (this) {
+            for (final UUID viewer : this.metadataTracker.getStale()) {
+                if (isInUpdateRange(viewer)) {
+                    this.metadataTracker.catchUp(this.passenger, viewer, relationalText());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the full metadata for a client older than 1.20.2, to replace its spawn metadata with
+     */
+    public @NotNull List<EntityData> getLegacySpawnMeta() {
+        return this.metadataTracker.getLegacySpawnMeta(this.passenger);
+    }
+
+    private @Nullable Function<UUID, Component> relationalText() {
+        final TextTemplateTrait text = this.traits.getTraitOrNull(TextTemplateTrait.class);
+
+        return text != null && text.isRelational() ? text::getRelationalText : null;
+    }
+
+    private boolean isInUpdateRange(@NotNull UUID viewer) {
+        final double scale = NameTags.getInstance().getSettings().updateDistanceScale();
+
+        if (scale <= 0) return true;
+
+        final double range = CellGrid.updateRange(this.flushedViewRange, scale, PlayerTracking.RANGE);
+
+        return this.cellGrid.isWithin(this.bukkitEntity.getUniqueId(), viewer, range);
+    }
+
+    public @NotNull MetadataTracker getMetadataTracker() {
+        return metadataTracker;
+    }
+
     public void sendPassengerPacket(Player target) {
+        final Object channel = PacketEvents.getAPI()
+            .getProtocolManager()
+            .getChannel(target.getUniqueId());
+
+        if (channel == null) return;
+
+        NameTags.getInstance()
+            .getPacketBatcher()
+            .enqueueEncoded(target.getUniqueId(), retainPassengersPacket(channel));
+    }
+
+    /**
+     * Sends the passengers straight away instead of with the next batch, e.g right after the vehicle spawned.
+     *
+     * @param user the viewer
+     */
+    public void sendPassengerPacket(@NotNull User user) {
         PacketEvents.getAPI()
-            .getPlayerManager()
-            .sendPacket(target, getPassengersPacket());
+            .getProtocolManager()
+            .sendPacketSilently(user.getChannel(), retainPassengersPacket(user.getChannel()));
     }
 
-    public PacketWrapper<?> getPassengersPacket() {
-        int[] previousPackets = NameTags.getInstance()
-            .getEntityManager()
-            .getLastSentPassengers(getBukkitEntity().getEntityId())
-            .orElseGet(() -> {
-                int[] bukkitPassengers = this.bukkitEntity.getPassengers()
-                    .stream()
-                    .mapToInt(Entity::getEntityId)
-                    .toArray();
+    private @NotNull Object retainPassengersPacket(@NotNull Object channel) {
+        final PassengerState state = getPassengerState();
+        final Object buffer = state.retain(channel);
+
+        if (buffer != null) return buffer;
+
+        // Replaced while we were reading it. Looking it up again could rebuild and evict another vehicle's
+        // state under churn, so send the passengers we already hold
+        return state.encode(channel);
+    }
+
+    /**
+     * Off the entity's thread the current passengers come from the latest snapshot, so this is safe to
+     * call from netty. Before the first snapshot only the tag is sent, the vanilla passenger packet that
+     * follows any change corrects it.
+     *
+     * @return the passengers last sent for the entity, or the current ones plus this tag if none were
+     */
+    public @NotNull PassengerState getPassengerState() {
+        final int entityId = this.bukkitEntity.getEntityId();
+        final PassengerState known = this.passengerTable.get(entityId);
+
+        if (known != null) return known;
+
+        final EntitySnapshot current = Bukkit.isOwnedByCurrentRegion(bukkitEntity)
+            ? captureSnapshot()
+            : this.snapshot;
+        final int[] riding = current == null ? new int[0] : current.passengers();
+        final int[] passengers = Arrays.copyOf(riding, riding.length + 1);
 
-                int[] passengers = Arrays.copyOf(bukkitPassengers, bukkitPassengers.length + 1);
-                passengers[passengers.length - 1] = getPassenger().getEntityId();
+        passengers[riding.length] = getPassenger().getEntityId();
 
-                return passengers;
-            });
+        final PassengerState built = new PassengerState(entityId, passengers);
+        this.passengerTable.put(built);
+        return built;
+    }
 
-        return new WrapperPlayServerSetPassengers(bukkitEntity.getEntityId(), previousPackets);
+    public PacketWrapper<?> getPassengersPacket() {
+        return new WrapperPlayServerSetPassengers(bukkitEntity.getEntityId(), getPassengerState().getPassengers());
     }
 
     public @NotNull Entity getBukkitEntity() {
@@ -114,17 +313,29 @@ public class NameTagEntity {
         return passenger;
     }
 
+    /**
+     * Moves the tag to its entity, captured fresh on the entity's own thread and from the latest snapshot
+     * anywhere else. Off-thread before the first snapshot it stays where it is, it rides the entity anyway.
+     */
     public @NotNull Location updateLocation() {
-        Location location = SpigotConversionUtil.fromBukkitLocation(
-            bukkitEntity.getLocation()
-                .clone()
-                .add(0.0, bukkitEntity.getBoundingBox().getMaxY(), 0.0)
-        );
+        final EntitySnapshot current = Bukkit.isOwnedByCurrentRegion(bukkitEntity)
+            ? captureSnapshot()
+            : this.snapshot;
+
+        if (current == null) {
+            final Location last = this.passenger.getLocation();
+            return last != null ? last : new Location(0.0, 0.0, 0.0, 0f, 0f);
+        }
 
-        location.setYaw(0f);
-        location.setPitch(0f);
+        final Location last = this.passenger.getLocation();
+        if (current == this.placedAt && last != null) {
+            return last;
+        }
+
+        Location location = current.toLocation();
 
         this.passenger.setLocation(location);
+        this.placedAt = current;
 
         return location;
     }
@@ -133,4 +344,11 @@ public class NameTagEntity {
         this.passenger.despawn();
         this.getTraits().destroy();
     }
+
+    // Read on first use rather than when the class loads
+    private static final class PlayerTracking {
+        private static final double RANGE = Bukkit.spigot()
+            .getConfig()
+            .getDouble("world-settings.default.entity-tracking-range.players", 48.0);
+    }
 }
@@ -5,20 +5,28 @@ import com.mattmx.nametags.event.NameTagEntityCreateEvent;
 import me.tofaa.entitylib.meta.display.AbstractDisplayMeta;
 import me.tofaa.entitylib.meta.display.TextDisplayMeta;
 import org.bukkit.Bukkit;
+import org.bukkit.Location;
 import org.bukkit.entity.Entity;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Map;
-import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiConsumer;
 
 public class NameTagEntityManager {
+    // Vehicles whose passengers are remembered at once, well above any player count
+    private static final int PASSENGER_TABLE_CAPACITY = 4096;
+
     private final @NotNull ConcurrentHashMap<UUID, NameTagEntity> entityMap = new ConcurrentHashMap<>();
-    private final Map<Integer, int[]> lastSentPassengers = new ConcurrentHashMap<>();
+    private final @NotNull EntityIdIndex<NameTagEntity> entityIdIndex = new EntityIdIndex<>();
+    private final @NotNull EntityIdIndex<NameTagEntity> tagEntityIdIndex = new EntityIdIndex<>();
+    private final @NotNull ViewerIndex<NameTagEntity> viewerIndex = new ViewerIndex<>();
+    private final @NotNull CellGrid cellGrid = new CellGrid();
+    private final @NotNull PassengerTable passengerTable = new PassengerTable(PASSENGER_TABLE_CAPACITY);
     private @NotNull BiConsumer<Entity, TextDisplayMeta> defaultProvider = (entity, meta) -> {
         // Default minecraft name-tag appearance
         meta.setText(entity.name());
@@ -29,10 +37,14 @@ public class NameTagEntityManager {
 
     public @NotNull NameTagEntity getOrCreateNameTagEntity(@NotNull Entity entity) {
         return entityMap.computeIfAbsent(entity.getUniqueId(), (k) -> {
-            NameTagEntity newEntity = new NameTagEntity(entity);
+            NameTagEntity newEntity = new NameTagEntity(entity, this);
 
             newEntity.getPassenger().consumeEntityMeta(TextDisplayMeta.class, (meta) -> defaultProvider.accept(entity, meta));
 
+            // Index before the event so listeners can already resolve the tag from packets
+            entityIdIndex.put(entity.getEntityId(), newEntity);
+            tagEntityIdIndex.put(newEntity.getPassenger().getEntityId(), newEntity);
+
             Bukkit.getPluginManager().callEvent(new NameTagEntityCreateEvent(newEntity));
 
             return newEntity;
@@ -40,7 +52,15 @@ public class NameTagEntityManager {
     }
 
     public @Nullable NameTagEntity removeEntity(@NotNull Entity entity) {
-        return entityMap.remove(entity.getUniqueId());
+        NameTagEntity removed = entityMap.remove(entity.getUniqueId());
+
+        if (removed != null) {
+            entityIdIndex.remove(removed.getBukkitEntity().getEntityId(), removed);
+            tagEntityIdIndex.remove(removed.getPassenger().getEntityId(), removed);
+            viewerIndex.removeTag(removed, removed.getPassenger().getViewers());
+        }
+
+        return removed;
     }
 
     public @Nullable NameTagEntity getNameTagEntity(@NotNull Entity entity) {
@@ -52,19 +72,63 @@ public class NameTagEntityManager {
     }
 
     public @Nullable NameTagEntity getNameTagEntityById(int entityId) {
-        return entityMap.values()
-            .stream()
-            .filter((e) -> e.getBukkitEntity().getEntityId() == entityId)
-            .findFirst()
-            .orElse(null);
+        return entityIdIndex.get(entityId);
     }
 
     public @Nullable NameTagEntity getNameTagEntityByTagEntityId(int entityId) {
-        return entityMap.values()
-            .stream()
-            .filter((e) -> e.getPassenger().getEntityId() == entityId)
-            .findFirst()
-            .orElse(null);
+        return tagEntityIdIndex.get(entityId);
+    }
+
+    /**
+     * @param viewer the viewer
+     * @return a snapshot of the tags the viewer currently sees
+     */
+    public @NotNull Set<NameTagEntity> getViewedBy(@NotNull UUID viewer) {
+        return viewerIndex.getTags(viewer);
+    }
+
+    /**
+     * Removes a player as a viewer from every tag they can see, touching only those tags.
+     *
+     * @param viewer the viewer
+     */
+    public void removeViewerFromAll(@NotNull UUID viewer) {
+        for (final NameTagEntity tag : viewerIndex.removeViewer(viewer)) {
+            tag.getPassenger().removeViewer(viewer);
+        }
+    }
+
+    /**
+     * Records a player's position and, if they crossed into a new cell, catches up any tags they
+     * missed updates for while out of range, and any viewers that missed updates of their own tag.
+     *
+     * @param player   the player
+     * @param location where they are now
+     */
+    public void updatePosition(@NotNull Entity player, @NotNull Location location) {
+        if (!cellGrid.update(player.getUniqueId(), location)) return;
+
+        for (final NameTagEntity tag : viewerIndex.getTags(player.getUniqueId())) {
+            tag.catchUp(player.getUniqueId());
+        }
+
+        final NameTagEntity own = entityMap.get(player.getUniqueId());
+
+        if (own != null) {
+            own.catchUpAll();
+        }
+    }
+
+    public void removePosition(@NotNull Entity player) {
+        cellGrid.remove(player.getUniqueId());
+    }
+
+    public @NotNull ViewerIndex<NameTagEntity> getViewerIndex() {
+        return viewerIndex;
+    }
+
+    public @NotNull CellGrid getCellGrid() {
+        return cellGrid;
     }
 
     public @NotNull Collection<NameTagEntity> getAllEntities() {
@@ -75,15 +139,20 @@ public class NameTagEntityManager {
         this.defaultProvider = consumer;
     }
 
-    public void setLastSentPassengers(int entityId, int[] passengers) {
-        this.lastSentPassengers.put(entityId, passengers);
+    public void setLastSentPassengers(int entityId, int @NotNull [] passengers) {
+        final PassengerState current = this.passengerTable.get(entityId);
+
+        // The same passengers are sent to every viewer, keep the packet already built for them
+        if (current != null && Arrays.equals(current.getPassengers(), passengers)) return;
+
+        this.passengerTable.put(new PassengerState(entityId, passengers));
     }
 
     public void removeLastSentPassengersCache(int entityId) {
-        this.lastSentPassengers.remove(entityId);
+        this.passengerTable.remove(entityId);
     }
 
-    public @NotNull Optional<int[]> getLastSentPassengers(int entityId) {
-        return Optional.ofNullable(this.lastSentPassengers.get(entityId));
+    public @NotNull PassengerTable getPassengerTable() {
+        return passengerTable;
     }
 }
@@ -0,0 +1,263 @@
+package com.mattmx.nametags.entity;
+
+import com.github.retrooper.packetevents.PacketEvents;
+import com.github.retrooper.packetevents.manager.protocol.ProtocolManager;
+import com.github.retrooper.packetevents.netty.buffer.ByteBufHelper;
+import com.github.retrooper.packetevents.netty.channel.ChannelHelper;
+import com.github.retrooper.packetevents.protocol.player.ClientVersion;
+import com.github.retrooper.packetevents.protocol.player.User;
+import com.github.retrooper.packetevents.wrapper.PacketWrapper;
+import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerBundle;
+import com.mattmx.nametags.entity.trait.RefreshScheduler;
+import com.mattmx.nametags.stats.Metrics;
+import com.mattmx.nametags.stats.Stage;
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+/**
+ * Collects the name tag packets produced for each viewer during a tick and sends them together.
+ * <p>
+ * Once per tick every viewer's queue is written to their channel and flushed a single time. Clients
+ * on 1.19.4 or newer get the packets wrapped in a bundle so they are applied on the same frame. Each
+ * batch is written as one task on the channel's event loop, so no other packet can end up between the
+ * bundle delimiters.
+ */
+public class PacketBatcher {
+    // The client rejects bundles with more packets than this
+    private static final int MAX_BUNDLE_SIZE = 4096;
+
+    private final @NotNull JavaPlugin plugin;
+    private final @NotNull Map<UUID, Queue<Object>> queues = new ConcurrentHashMap<>();
+    private final @NotNull AtomicBoolean draining = new AtomicBoolean(false);
+    private final @NotNull LongAdder totalPackets = new LongAdder();
+    private final @NotNull LongAdder totalFlushes = new LongAdder();
+    private final @NotNull LongAdder totalBundles = new LongAdder();
+    private @Nullable ScheduledTask task = null;
+    private volatile int lastTickPackets = 0;
+    private volatile int lastTickFlushes = 0;
+
+    public PacketBatcher(@NotNull JavaPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    public void start() {
+        if (this.task != null) return;
+
+        this.task = Bukkit.getAsyncScheduler()
+            .runAtFixedRate(plugin, (task) -> drain(), RefreshScheduler.TICK_MILLIS, RefreshScheduler.TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (this.task != null) {
+            this.task.cancel();
+            this.task = null;
+        }
+
+        drain();
+    }
+
+    /**
+     * Queues a packet to be sent to a viewer at the end of the current tick.
+     *
+     * @param viewer the viewer
+     * @param packet the packet
+     */
+    public void enqueue(@NotNull UUID viewer, @NotNull PacketWrapper<?> packet) {
+        add(viewer, packet);
+    }
+
+    /**
+     * Queues an already serialized packet. It is written silently, so packet listeners don't see it,
+     * and this takes ownership of the buffer.
+     *
+     * @param viewer the viewer
+     * @param buffer the serialized packet
+     */
+    public void enqueueEncoded(@NotNull UUID viewer, @NotNull Object buffer) {
+        add(viewer, buffer);
+    }
+
+    // Added under the map's lock for the viewer, so a drain can't drop the queue as empty in between
+    private void add(@NotNull UUID viewer, @NotNull Object packet) {
+        queues.compute(viewer, (k, queue) -> {
+            if (queue == null) {
+                queue = new ConcurrentLinkedQueue<>();
+            }
+            queue.add(packet);
+            return queue;
+        });
+    }
+
+    /**
+     * Drops anything queued for a viewer, e.g when they quit.
+     *
+     * @param viewer the viewer
+     */
+    public void discard(@NotNull UUID viewer) {
+        final Queue<Object> queue = queues.remove(viewer);
+
+        if (queue != null) {
+            clear(queue);
+        }
+    }
+
+    public void drain() {
+        if (!draining.compareAndSet(false, true)) return;
+
+        final long start = Metrics.start();
+        try {
+            final ProtocolManager protocol = PacketEvents.getAPI().getProtocolManager();
+            int packets = 0;
+            int flushes = 0;
+
+            for (final Map.Entry<UUID, Queue<Object>> entry : queues.entrySet()) {
+                final Queue<Object> queue = entry.getValue();
+
+                // Drop queues nobody wrote to since the last drain, so the map doesn't keep every player ever seen
+                if (queue.isEmpty()) {
+                    queues.computeIfPresent(entry.getKey(), (k, current) -> current.isEmpty() ? null : current);
+                    continue;
+                }
+
+                final Object channel = protocol.getChannel(entry.getKey());
+                final User user = channel == null ? null : protocol.getUser(channel);
+
+                if (user == null) {
+                    queues.computeIfPresent(entry.getKey(), (k, current) -> {
+                        clear(current);
+                        return null;
+                    });
+                    continue;
+                }
+
+                final Queue<Object> batch = new ArrayDeque<>(queue.size());
+                Object packet;
+                while ((packet = queue.poll()) != null) {
+                    batch.add(packet);
+                }
+
+                ChannelHelper.runInEventLoop(user.getChannel(), () -> {
+                    try {
+                        write(user, batch);
+                        user.flushPackets();
+                    } catch (Throwable throwable) {
+                        clear(batch);
+                        plugin.getLogger().log(Level.WARNING, "Failed to send name tag packets", throwable);
+                    }
+                });
+                packets += batch.size();
+                flushes++;
+            }
+
+            this.lastTickPackets = packets;
+            this.lastTickFlushes = flushes;
+            this.totalPackets.add(packets);
+            this.totalFlushes.add(flushes);
+
+            // Idle ticks would drown out the ones that actually sent something
+            if (flushes > 0) {
+                Metrics.record(Stage.PACKET_FLUSH, start);
+            }
+        } finally {
+            draining.set(false);
+        }
+    }
+
+    // Runs on the channel's event loop
+    private void write(@NotNull User user, @NotNull Queue<Object> queue) {
+        final boolean bundle = queue.size() > 1
+            && user.getClientVersion().isNewerThanOrEquals(ClientVersion.V_1_19_4);
+        int inBundle = 0;
+
+        if (bundle) {
+            user.writePacket(new WrapperPlayServerBundle());
+            totalBundles.increment();
+        }
+
+        Object packet;
+        while ((packet = queue.poll()) != null) {
+            if (bundle && inBundle == MAX_BUNDLE_SIZE - 1) {
+                user.writePacket(new WrapperPlayServerBundle());
+                user.writePacket(new WrapperPlayServerBundle());
+                totalBundles.increment();
+                inBundle = 0;
+            }
+
+            if (packet instanceof PacketWrapper<?> wrapper) {
+                user.writePacket(wrapper);
+            } else {
+                PacketEvents.getAPI()
+                    .getProtocolManager()
+                    .writePacketSilently(user.getChannel(), packet);
+            }
+            inBundle++;
+        }
+
+        if (bundle) {
+            user.writePacket(new WrapperPlayServerBundle());
+        }
+    }
+
+    private static void clear(@NotNull Queue<Object> queue) {
+        Object packet;
+        while ((packet = queue.poll()) != null) {
+            if (!(packet instanceof PacketWrapper<?>)) {
+                ByteBufHelper.release(packet);
+            }
+        }
+    }
+
+    /**
+     * @return packets sent during the most recent tick
+     */
+    public int getLastTickPackets() {
+        return lastTickPackets;
+    }
+
+    /**
+     * @return channel flushes done during the most recent tick, one per viewer with queued packets
+     */
+    public int getLastTickFlushes() {
+        return lastTickFlushes;
+    }
+
+    public long getTotalPackets() {
+        return totalPackets.sum();
+    }
+
+    public long getTotalFlushes() {
+        return totalFlushes.sum();
+    }
+
+    public long getTotalBundles() {
+        return totalBundles.sum();
+    }
+
+    /**
+     * @return flushes avoided compared to flushing after every packet
+     */
+    public long getFlushesSaved() {
+        return getTotalPackets() - getTotalFlushes();
+    }
+
+    public int getPendingCount() {
+        return queues.values()
+            .stream()
+            .mapToInt(Queue::size)
+            .sum();
+    }
+}
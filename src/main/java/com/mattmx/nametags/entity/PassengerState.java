@@ -0,0 +1,74 @@
+package com.mattmx.nametags.entity;
+
+import com.github.retrooper.packetevents.netty.buffer.ByteBufHelper;
+import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerSetPassengers;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The passengers last sent for a vehicle, tag included, with the packet for them serialized at most
+ * once and shared by every viewer through reference counted duplicates.
+ */
+public final class PassengerState {
+    private final int entityId;
+    private final int @NotNull [] passengers;
+    private @Nullable Object encoded = null;
+    private boolean released = false;
+
+    PassengerState(int entityId, int @NotNull [] passengers) {
+        this.entityId = entityId;
+        this.passengers = passengers;
+    }
+
+    public int getEntityId() {
+        return entityId;
+    }
+
+    /**
+     * @return the passenger ids, not to be modified
+     */
+    public int @NotNull [] getPassengers() {
+        return passengers;
+    }
+
+    /**
+     * @param channel any viewer's channel, used to allocate the buffer the first time
+     * @return a new reference to the serialized packet owned by the caller, or null if this state was
+     * replaced in the meantime and a fresh one should be looked up
+     */
+    synchronized @Nullable Object retain(@NotNull Object channel) {
+        if (released) return null;
+
+        if (encoded == null) {
+            encoded = encode(channel);
+        }
+
+        return ByteBufHelper.retainedDuplicate(encoded);
+    }
+
+    /**
+     * Serializes the packet on its own, for when this state was already replaced but is still what the
+     * caller holds.
+     *
+     * @param channel the viewer's channel
+     * @return a new buffer owned by the caller
+     */
+    @NotNull Object encode(@NotNull Object channel) {
+        final WrapperPlayServerSetPassengers packet = new WrapperPlayServerSetPassengers(entityId, passengers);
+
+        packet.prepareForSend(channel, true);
+        return packet.getBuffer();
+    }
+
+    /**
+     * Drops this state's own reference to the buffer once it is replaced, sent duplicates keep it alive.
+     */
+    synchronized void release() {
+        released = true;
+
+        if (encoded != null) {
+            ByteBufHelper.release(encoded);
+            encoded = null;
+        }
+    }
+}
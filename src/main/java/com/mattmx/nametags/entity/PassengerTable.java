@@ -0,0 +1,114 @@
+package com.mattmx.nametags.entity;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded {@code int -> PassengerState} table of what was last sent for each vehicle with a tag.
+ * <p>
+ * An id can only live in the few slots after its home slot. When those are all taken the home slot
+ * is evicted, and that vehicle's passengers are rebuilt from Bukkit the next time they are needed.
+ * Reads never lock, box or allocate, writes are synchronized.
+ */
+public final class PassengerTable {
+    private static final int WINDOW = 8;
+
+    private final @NotNull AtomicReferenceArray<PassengerState> slots;
+    private final int mask;
+    private final @NotNull LongAdder evictions = new LongAdder();
+
+    /**
+     * @param capacity the most vehicles kept at once, rounded up to a power of two
+     */
+    public PassengerTable(int capacity) {
+        final int size = Integer.highestOneBit(Math.max(WINDOW, capacity - 1)) << 1;
+
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    public @Nullable PassengerState get(int entityId) {
+        final int home = home(entityId);
+
+        for (int i = 0; i < WINDOW; i++) {
+            final PassengerState state = slots.get((home + i) & mask);
+
+            if (state != null && state.getEntityId() == entityId) return state;
+        }
+
+        return null;
+    }
+
+    public synchronized void put(@NotNull PassengerState state) {
+        final int home = home(state.getEntityId());
+        int free = -1;
+
+        for (int i = 0; i < WINDOW; i++) {
+            final int slot = (home + i) & mask;
+            final PassengerState current = slots.get(slot);
+
+            if (current != null && current.getEntityId() == state.getEntityId()) {
+                slots.set(slot, state);
+                current.release();
+                return;
+            }
+
+            if (current == null && free == -1) {
+                free = slot;
+            }
+        }
+
+        if (free != -1) {
+            slots.set(free, state);
+            return;
+        }
+
+        final PassengerState evicted = slots.getAndSet(home, state);
+        evictions.increment();
+
+        if (evicted != null) {
+            evicted.release();
+        }
+    }
+
+    public synchronized void remove(int entityId) {
+        final int home = home(entityId);
+
+        for (int i = 0; i < WINDOW; i++) {
+            final int slot = (home + i) & mask;
+            final PassengerState current = slots.get(slot);
+
+            if (current != null && current.getEntityId() == entityId) {
+                slots.set(slot, null);
+                current.release();
+                return;
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+
+        for (int i = 0; i < slots.length(); i++) {
+            if (slots.get(i) != null) size++;
+        }
+
+        return size;
+    }
+
+    public int capacity() {
+        return slots.length();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    private int home(int entityId) {
+        final int h = entityId * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
@@ -0,0 +1,76 @@
+package com.mattmx.nametags.entity;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reverse of the passenger viewer sets, {@code viewer -> tags they currently see}.
+ * <p>
+ * Lets join, quit and toggle handling touch only the tags a player actually views instead of
+ * scanning every tag on the server. Kept in sync by {@link NameTagEntity#addViewer(UUID)} and
+ * {@link NameTagEntity#removeViewer(UUID)}, so viewers should not be changed on the passenger directly.
+ *
+ * @param <T> tag type
+ */
+public final class ViewerIndex<T> {
+    private final @NotNull Map<UUID, Set<T>> viewing = new ConcurrentHashMap<>();
+
+    public void add(@NotNull UUID viewer, @NotNull T tag) {
+        // Mutate inside compute so a concurrent remove can't drop the set we're adding to
+        viewing.compute(viewer, (k, tags) -> {
+            final Set<T> updated = tags == null ? ConcurrentHashMap.newKeySet() : tags;
+            updated.add(tag);
+            return updated;
+        });
+    }
+
+    public void remove(@NotNull UUID viewer, @NotNull T tag) {
+        viewing.computeIfPresent(viewer, (k, tags) -> {
+            tags.remove(tag);
+            return tags.isEmpty() ? null : tags;
+        });
+    }
+
+    /**
+     * Removes a tag from the entries of all of its viewers, e.g when the tag is destroyed.
+     *
+     * @param tag     the tag
+     * @param viewers the tag's current viewers
+     */
+    public void removeTag(@NotNull T tag, @NotNull Collection<UUID> viewers) {
+        for (final UUID viewer : viewers) {
+            remove(viewer, tag);
+        }
+    }
+
+    /**
+     * Drops every entry of a viewer, e.g when they quit.
+     *
+     * @param viewer the viewer
+     * @return the tags they were viewing
+     */
+    public @NotNull Set<T> removeViewer(@NotNull UUID viewer) {
+        final Set<T> removed = viewing.remove(viewer);
+
+        return removed == null ? Set.of() : removed;
+    }
+
+    /**
+     * @param viewer the viewer
+     * @return a snapshot of the tags the viewer currently sees
+     */
+    public @NotNull Set<T> getTags(@NotNull UUID viewer) {
+        final Set<T> tags = viewing.get(viewer);
+
+        return tags == null ? Set.of() : Set.copyOf(tags);
+    }
+
+    public int getViewerCount() {
+        return viewing.size();
+    }
+}
@@ -0,0 +1,456 @@
+package com.mattmx.nametags.entity.trait;
+
+import com.mattmx.nametags.NameTags;
+import com.mattmx.nametags.entity.NameTagEntity;
+import com.mattmx.nametags.stats.Metrics;
+import com.mattmx.nametags.stats.Stage;
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+/**
+ * Drives every {@link RefreshTrait} from a single repeating task instead of one timer per tag.
+ * <p>
+ * Traits are grouped by their period (in ticks). Each group owns one bucket per tick of its period
+ * and new traits go into the least loaded bucket, so tags sharing a period are spread evenly across
+ * the cycle rather than all waking up on the same tick.
+ * <p>
+ * A trait is skipped on its bucket's turn until its own interval has passed, which grows while its
+ * output stays the same. While the server's average tick time is over budget every interval is
+ * doubled, up to {@value #MAX_THROTTLE} times, and recovers one step at a time once it is back under.
+ * <p>
+ * Traits that read entity state snapshot it on the entity's own thread, and those snapshots are
+ * handed back here and applied at the start of the next cycle. On Paper the state of every tag's entity
+ * and all requested snapshots are copied together in one main thread task per tick. Folia has no main
+ * thread, so there each snapshot is taken on its entity's region instead. Relational text reads both
+ * players, so it is rendered right after the entity's state is copied, on the same thread. Those renders
+ * get a time budget per tick, and on Paper the tags take turns so the ones left over go first next tick.
+ * Snapshots are
+ * applied on a small pool of worker threads, so formatting and placeholder waits spread across cores
+ * instead of queueing behind each other. A trait never has more than one snapshot in flight, and tags
+ * are only modified under their own lock, so applies of different tags can run side by side.
+ */
+public class RefreshScheduler {
+    public static final long TICK_MILLIS = 50L;
+    public static final int MAX_THROTTLE = 3;
+    private static final int THROTTLE_SAMPLE_TICKS = 20;
+    // Only recover once comfortably under budget so the throttle doesn't flap around it
+    private static final double THROTTLE_RECOVER_RATIO = 0.8;
+    private static final boolean FOLIA = hasClass("io.papermc.paper.threadedregions.RegionizedServer");
+    private static final int WORKERS = Math.max(1, Math.min(8, Runtime.getRuntime().availableProcessors() / 2));
+
+    private final @NotNull JavaPlugin plugin;
+    private final @NotNull Map<Long, PeriodGroup> groups = new ConcurrentHashMap<>();
+    private final @NotNull AtomicBoolean ticking = new AtomicBoolean(false);
+    private final @NotNull LongAdder totalProcessed = new LongAdder();
+    private final @NotNull Queue<Snapshot> snapshots = new ConcurrentLinkedQueue<>();
+    private final @NotNull Queue<RefreshTrait> snapshotRequests = new ConcurrentLinkedQueue<>();
+    // Only touched in capture(), on the main thread
+    private final @NotNull List<TextTemplateTrait> relationalTags = new ArrayList<>();
+    private int relationalCursor = 0;
+    private volatile long relationalBudgetNanos = TimeUnit.MILLISECONDS.toNanos(2L);
+    private @Nullable ScheduledTask task = null;
+    private @Nullable ScheduledTask captureTask = null;
+    private volatile @Nullable ExecutorService workers = null;
+    private long currentTick = 0L;
+    private volatile int lastCycleProcessed = 0;
+    private volatile long cycles = 0L;
+    private volatile double msptBudget = 0.0;
+    private volatile int throttle = 0;
+
+    public RefreshScheduler(@NotNull JavaPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    public void start() {
+        if (this.task != null) return;
+
+        this.workers = Executors.newFixedThreadPool(
+            WORKERS,
+            Thread.ofPlatform()
+                .name("nametags-refresh-", 0)
+                .daemon(true)
+                .factory()
+        );
+
+        this.task = Bukkit.getAsyncScheduler()
+            .runAtFixedRate(plugin, (task) -> tick(), TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+
+        if (!FOLIA) {
+            this.captureTask = Bukkit.getGlobalRegionScheduler()
+                .runAtFixedRate(plugin, (task) -> capture(), 1L, 1L);
+        }
+    }
+
+    public void stop() {
+        if (this.task != null) {
+            this.task.cancel();
+            this.task = null;
+        }
+
+        if (this.captureTask != null) {
+            this.captureTask.cancel();
+            this.captureTask = null;
+        }
+
+        if (this.workers != null) {
+            this.workers.shutdown();
+            this.workers = null;
+        }
+
+        RefreshTrait trait;
+        while ((trait = snapshotRequests.poll()) != null) {
+            trait.cancelSnapshot();
+        }
+    }
+
+    void register(@NotNull RefreshTrait trait) {
+        final long periodTicks = toTicks(trait.getPeriodMillis());
+
+        groups.computeIfAbsent(periodTicks, PeriodGroup::new).add(trait);
+    }
+
+    void unregister(@NotNull RefreshTrait trait) {
+        final PeriodGroup group = groups.get(toTicks(trait.getPeriodMillis()));
+
+        if (group != null) {
+            group.remove(trait);
+        }
+    }
+
+    public void tick() {
+        // Skip this cycle if the previous one is still running rather than piling up work
+        if (!ticking.compareAndSet(false, true)) return;
+
+        try {
+            final long tick = this.currentTick++;
+            int processed = 0;
+
+            if (tick % THROTTLE_SAMPLE_TICKS == 0) {
+                updateThrottle();
+            }
+
+            processed += applySnapshots();
+
+            for (final PeriodGroup group : groups.values()) {
+                processed += group.run(tick);
+            }
+
+            this.lastCycleProcessed = processed;
+            this.cycles++;
+            this.totalProcessed.add(processed);
+        } finally {
+            ticking.set(false);
+        }
+    }
+
+    /**
+     * Takes a trait's snapshot on its entity's thread, with the next batch on Paper.
+     *
+     * @return false if the entity is gone and no snapshot will be taken
+     */
+    boolean requestSnapshot(@NotNull RefreshTrait trait) {
+        if (!FOLIA) {
+            snapshotRequests.add(trait);
+            return true;
+        }
+
+        final NameTagEntity tag = trait.getTag();
+        final ScheduledTask scheduled = tag.getBukkitEntity()
+            .getScheduler()
+            .run(plugin, (task) -> {
+                tag.captureSnapshot();
+                trait.snapshot();
+
+                final TextTemplateTrait text = relationalTrait(tag);
+                if (text != null) {
+                    updateRelational(text, System.nanoTime() + relationalBudgetNanos);
+                }
+            }, trait::cancelSnapshot);
+
+        return scheduled != null;
+    }
+
+    /**
+     * Runs on the main thread once per tick, copies the state of every tag's entity, renders relational
+     * text that is missing or expired for as long as the budget allows and then takes every snapshot
+     * requested since the last tick.
+     */
+    private void capture() {
+        final long start = Metrics.start();
+
+        relationalTags.clear();
+        for (final NameTagEntity tag : NameTags.getInstance().getEntityManager().getAllEntities()) {
+            try {
+                tag.captureSnapshot();
+
+                final TextTemplateTrait text = relationalTrait(tag);
+                if (text != null) {
+                    relationalTags.add(text);
+                }
+            } catch (Throwable throwable) {
+                plugin.getLogger().log(Level.WARNING, "Failed to snapshot name tag", throwable);
+            }
+        }
+
+        renderRelational(System.nanoTime() + relationalBudgetNanos);
+
+        RefreshTrait trait;
+        while ((trait = snapshotRequests.poll()) != null) {
+            if (!trait.getTag().getBukkitEntity().isValid()) {
+                trait.cancelSnapshot();
+                continue;
+            }
+
+            trait.snapshot();
+        }
+
+        Metrics.record(Stage.CAPTURE, start);
+    }
+
+    /**
+     * Goes round the relational tags starting with the one the last tick stopped at, so a tag with
+     * many viewers can't keep the ones after it waiting.
+     */
+    private void renderRelational(long deadlineNanos) {
+        final int size = relationalTags.size();
+
+        if (size == 0) return;
+
+        final int first = relationalCursor % size;
+
+        for (int i = 0; i < size; i++) {
+            final int index = (first + i) % size;
+
+            if (!updateRelational(relationalTags.get(index), deadlineNanos)) {
+                // Out of budget, this tag still has viewers left so it goes first next tick
+                this.relationalCursor = index;
+                return;
+            }
+        }
+
+        this.relationalCursor = 0;
+    }
+
+    private static @Nullable TextTemplateTrait relationalTrait(@NotNull NameTagEntity tag) {
+        final TextTemplateTrait text = tag.getTraits().getTraitOrNull(TextTemplateTrait.class);
+
+        return text != null && text.isRelational() ? text : null;
+    }
+
+    private boolean updateRelational(@NotNull TextTemplateTrait text, long deadlineNanos) {
+        try {
+            return text.updateRelational(NameTags.getInstance().getSettings().relationalCacheTtl(), deadlineNanos);
+        } catch (Throwable throwable) {
+            plugin.getLogger().log(Level.WARNING, "Failed to render relational name tag", throwable);
+            return true;
+        }
+    }
+
+    /**
+     * Hands a snapshot taken on an entity's thread back to be applied on the next cycle.
+     */
+    void complete(@NotNull RefreshTrait trait, @Nullable Object snapshot) {
+        snapshots.add(new Snapshot(trait, snapshot));
+    }
+
+    private int applySnapshots() {
+        final ExecutorService workers = this.workers;
+        int applied = 0;
+        Snapshot snapshot;
+
+        while ((snapshot = snapshots.poll()) != null) {
+            final Snapshot next = snapshot;
+
+            if (workers == null) {
+                apply(next);
+            } else {
+                try {
+                    workers.execute(() -> apply(next));
+                } catch (RejectedExecutionException exception) {
+                    // Stopped in the meantime
+                    next.trait().cancelSnapshot();
+                    continue;
+                }
+            }
+            applied++;
+        }
+
+        return applied;
+    }
+
+    private void apply(@NotNull Snapshot snapshot) {
+        try {
+            snapshot.trait().complete(snapshot.value());
+        } catch (Throwable throwable) {
+            plugin.getLogger().log(Level.WARNING, "Failed to refresh name tag", throwable);
+        }
+    }
+
+    public int getPendingSnapshots() {
+        return snapshots.size();
+    }
+
+    private void updateThrottle() {
+        final double budget = this.msptBudget;
+
+        if (budget <= 0.0) {
+            this.throttle = 0;
+            return;
+        }
+
+        final double mspt = getAverageTickTime();
+
+        if (mspt > budget && throttle < MAX_THROTTLE) {
+            this.throttle++;
+        } else if (mspt < budget * THROTTLE_RECOVER_RATIO && throttle > 0) {
+            this.throttle--;
+        }
+    }
+
+    private static double getAverageTickTime() {
+        try {
+            return Bukkit.getAverageTickTime();
+        } catch (UnsupportedOperationException e) {
+            // Folia has no single tick time to go by
+            return 0.0;
+        }
+    }
+
+    /**
+     * @param budgetMillis how long relational text may be rendered for each tick, it always renders at least one viewer
+     */
+    public void setRelationalBudget(double budgetMillis) {
+        this.relationalBudgetNanos = (long) (Math.max(0.0, budgetMillis) * 1_000_000L);
+    }
+
+    /**
+     * @param msptBudget average tick time in milliseconds above which refreshes are slowed down, 0 to never throttle
+     */
+    public void setMsptBudget(double msptBudget) {
+        this.msptBudget = msptBudget;
+    }
+
+    /**
+     * @return how many times every refresh interval is currently doubled because of server load
+     */
+    public int getThrottle() {
+        return throttle;
+    }
+
+    /**
+     * @return how many tags were refreshed during the most recent cycle
+     */
+    public int getLastCycleProcessed() {
+        return lastCycleProcessed;
+    }
+
+    public long getTotalProcessed() {
+        return totalProcessed.sum();
+    }
+
+    public long getCycles() {
+        return cycles;
+    }
+
+    public int getRegisteredCount() {
+        return groups.values()
+            .stream()
+            .mapToInt(PeriodGroup::size)
+            .sum();
+    }
+
+    public static long toTicks(long periodMillis) {
+        return Math.max(1L, (periodMillis + TICK_MILLIS - 1) / TICK_MILLIS);
+    }
+
+    private static boolean hasClass(@NotNull String name) {
+        try {
+            Class.forName(name);
+            return true;
+        } catch (ClassNotFoundException exception) {
+            return false;
+        }
+    }
+
+    private record Snapshot(@NotNull RefreshTrait trait, @Nullable Object value) {
+    }
+
+    private final class PeriodGroup {
+        private final long periodTicks;
+        private final @NotNull List<List<RefreshTrait>> buckets;
+
+        private PeriodGroup(long periodTicks) {
+            // Periods longer than a minute share buckets and skip the cycles in between
+            final int bucketCount = (int) Math.min(periodTicks, 1200L);
+
+            this.periodTicks = periodTicks;
+            this.buckets = new ArrayList<>(bucketCount);
+            for (int i = 0; i < bucketCount; i++) {
+                this.buckets.add(new CopyOnWriteArrayList<>());
+            }
+        }
+
+        private synchronized void add(@NotNull RefreshTrait trait) {
+            List<RefreshTrait> smallest = buckets.getFirst();
+
+            for (final List<RefreshTrait> bucket : buckets) {
+                if (bucket.size() < smallest.size()) {
+                    smallest = bucket;
+                }
+            }
+
+            smallest.add(trait);
+        }
+
+        private synchronized void remove(@NotNull RefreshTrait trait) {
+            for (final List<RefreshTrait> bucket : buckets) {
+                if (bucket.remove(trait)) return;
+            }
+        }
+
+        private int size() {
+            return buckets.stream()
+                .mapToInt(List::size)
+                .sum();
+        }
+
+        private int run(long tick) {
+            final List<RefreshTrait> bucket = buckets.get((int) (tick % buckets.size()));
+            final int throttle = RefreshScheduler.this.throttle;
+            int processed = 0;
+
+            for (final RefreshTrait trait : bucket) {
+                if (tick - trait.lastRunTick < Math.max(periodTicks, trait.getIntervalTicks(throttle))) continue;
+
+                trait.lastRunTick = tick;
+                try {
+                    if (trait.run()) {
+                        processed++;
+                    }
+                } catch (Throwable throwable) {
+                    plugin.getLogger().log(Level.WARNING, "Failed to refresh name tag", throwable);
+                }
+            }
+
+            return processed;
+        }
+    }
+}
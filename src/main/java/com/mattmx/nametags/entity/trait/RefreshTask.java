@@ -0,0 +1,67 @@
+package com.mattmx.nametags.entity.trait;
+
+import com.mattmx.nametags.entity.NameTagEntity;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.function.Predicate;
+
+/**
+ * A tag refresh split in two, so that entity state is only ever read on the thread that owns the entity.
+ * <p>
+ * {@link #snapshot(NameTagEntity)} runs on the entity's scheduler, which is its region thread on Folia
+ * and the main thread on Paper, and should only copy out what {@link #apply(NameTagEntity, Object)}
+ * needs. {@code apply} then runs on the refresh thread, where formatting and sending happen.
+ *
+ * @param <S> the snapshot type
+ */
+public interface RefreshTask<S> {
+
+    /**
+     * Runs on the thread that owns the tag's entity.
+     *
+     * @param tag the tag
+     * @return everything {@code apply} needs to read from the game
+     */
+    @Nullable S snapshot(@NotNull NameTagEntity tag);
+
+    /**
+     * Runs on the refresh thread.
+     *
+     * @param tag      the tag
+     * @param snapshot the result of {@link #snapshot(NameTagEntity)}
+     * @return true if anything visible changed
+     */
+    boolean apply(@NotNull NameTagEntity tag, @Nullable S snapshot);
+
+    /**
+     * @return false if {@code snapshot} doesn't read entity state, so the hop to the owning thread can be skipped
+     */
+    default boolean needsEntityThread() {
+        return true;
+    }
+
+    /**
+     * A refresh that runs entirely on the refresh thread, like refreshes did before they were split.
+     *
+     * @param update refreshes the tag and returns true if anything visible changed
+     */
+    static @NotNull RefreshTask<Void> offThread(@NotNull Predicate<NameTagEntity> update) {
+        return new RefreshTask<>() {
+            @Override
+            public @Nullable Void snapshot(@NotNull NameTagEntity tag) {
+                return null;
+            }
+
+            @Override
+            public boolean apply(@NotNull NameTagEntity tag, @Nullable Void snapshot) {
+                return update.test(tag);
+            }
+
+            @Override
+            public boolean needsEntityThread() {
+                return false;
+            }
+        };
+    }
+}
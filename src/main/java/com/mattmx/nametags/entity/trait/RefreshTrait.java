@@ -1,47 +1,234 @@
 package com.mattmx.nametags.entity.trait;
 
+import com.mattmx.nametags.NameTags;
 import com.mattmx.nametags.entity.NameTagEntity;
-import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+import com.mattmx.nametags.stats.Metrics;
+import com.mattmx.nametags.stats.Stage;
 import org.bukkit.Bukkit;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.logging.Level;
 
 public class RefreshTrait extends Trait {
-    private @Nullable ScheduledTask task = null;
+    // Backing off stops doubling after this many unchanged refreshes
+    private static final int MAX_BACKOFF = 16;
+
     private final JavaPlugin plugin;
-    private final long period;
-    private final TimeUnit unit;
-    private final Consumer<NameTagEntity> update;
-    private boolean paused = false;
+    private final RefreshTask<Object> task;
+    // Set while a snapshot is queued on the entity's thread or waiting to be applied
+    private final AtomicBoolean pending = new AtomicBoolean(false);
+    private volatile long periodMillis;
+    private volatile long maxPeriodMillis;
+    private volatile boolean paused = false;
+    // Guards moving between period groups against being destroyed halfway through
+    private final Object registration = new Object();
+    private boolean destroyed = false;
+    // Only touched by the refresh scheduler's thread
+    long lastRunTick = Long.MIN_VALUE / 2;
+    private volatile int backoff = 0;
 
     public RefreshTrait(@NotNull JavaPlugin plugin, long period, TimeUnit unit, Consumer<NameTagEntity> update) {
+        this(plugin, unit.toMillis(period), unit.toMillis(period), (tag) -> {
+            update.accept(tag);
+            return true;
+        });
+    }
+
+    /**
+     * @param plugin          the owning plugin
+     * @param periodMillis    how often to refresh while the output keeps changing
+     * @param maxPeriodMillis the longest the period may back off to while it doesn't, the same as {@code periodMillis} to never back off
+     * @param update          refreshes the tag and returns true if anything visible changed
+     */
+    public RefreshTrait(@NotNull JavaPlugin plugin, long periodMillis, long maxPeriodMillis, @NotNull Predicate<NameTagEntity> update) {
+        this(plugin, periodMillis, maxPeriodMillis, RefreshTask.offThread(update));
+    }
+
+    /**
+     * @param plugin          the owning plugin
+     * @param periodMillis    how often to refresh while the output keeps changing
+     * @param maxPeriodMillis the longest the period may back off to while it doesn't
+     * @param task            snapshots the entity on its own thread, then refreshes the tag from the snapshot
+     */
+    @SuppressWarnings("unchecked")
+    public <S> RefreshTrait(@NotNull JavaPlugin plugin, long periodMillis, long maxPeriodMillis, @NotNull RefreshTask<S> task) {
         this.plugin = plugin;
-        this.period = period;
-        this.unit = unit;
-        this.update = update;
+        this.periodMillis = periodMillis;
+        this.maxPeriodMillis = Math.max(periodMillis, maxPeriodMillis);
+        this.task = (RefreshTask<Object>) task;
     }
 
     @Override
     public void onEnable() {
-        this.task = Bukkit.getAsyncScheduler()
-            .runAtFixedRate(plugin, (task) -> {
+        // Render once straight away, the scheduler picks it up from the next cycle onwards
+        Bukkit.getAsyncScheduler().runNow(plugin, (task) -> run());
+
+        synchronized (registration) {
+            if (destroyed) return;
+
+            NameTags.getInstance()
+                .getRefreshScheduler()
+                .register(this);
+        }
+    }
 
-                // Don't process if paused
-                if (!this.isPaused()) {
+    /**
+     * Refreshes straight away if the task doesn't need the entity's thread, otherwise asks the refresh
+     * scheduler for a snapshot and it applies the result on a later cycle.
+     *
+     * @return true if the tag was refreshed
+     */
+    boolean run() {
+        // Don't process if paused
+        if (this.isPaused()) return false;
 
-                    // If the tag is not currently spawned in then we shouldn't process
-                    if (!getTag().getPassenger().isSpawned()) {
-                        return;
-                    }
+        // If the tag is not currently spawned in then we shouldn't process
+        if (!getTag().getPassenger().isSpawned()) return false;
+
+        if (!task.needsEntityThread()) {
+            apply(null);
+            return true;
+        }
 
-                    update.accept(getTag());
-                }
+        // Still waiting on the last one, e.g the region is lagging
+        if (!pending.compareAndSet(false, true)) return false;
 
-            }, 0L, period, unit);
+        final boolean requested = NameTags.getInstance()
+            .getRefreshScheduler()
+            .requestSnapshot(this);
+
+        // The entity was removed
+        if (!requested) {
+            cancelSnapshot();
+        }
+        return false;
+    }
+
+    /**
+     * Takes the task's snapshot, called on the entity's own thread.
+     */
+    void snapshot() {
+        final long start = Metrics.start();
+        final Object snapshot;
+
+        try {
+            snapshot = task.snapshot(getTag());
+        } catch (Throwable throwable) {
+            pending.set(false);
+            plugin.getLogger().log(Level.WARNING, "Failed to snapshot name tag", throwable);
+            return;
+        } finally {
+            Metrics.record(Stage.SNAPSHOT, start);
+        }
+
+        NameTags.getInstance()
+            .getRefreshScheduler()
+            .complete(this, snapshot);
+    }
+
+    /**
+     * Gives up on a requested snapshot, e.g because the entity is gone.
+     */
+    void cancelSnapshot() {
+        pending.set(false);
+    }
+
+    /**
+     * Applies a snapshot taken on the entity's thread, called by the refresh scheduler.
+     */
+    void complete(@Nullable Object snapshot) {
+        try {
+            if (!isPaused()) {
+                apply(snapshot);
+            }
+        } finally {
+            pending.set(false);
+        }
+    }
+
+    private void apply(@Nullable Object snapshot) {
+        final long start = Metrics.start();
+        final boolean changed;
+
+        try {
+            changed = task.apply(getTag(), snapshot);
+        } finally {
+            Metrics.record(Stage.REFRESH, start);
+        }
+
+        if (changed) {
+            this.backoff = 0;
+        } else if (this.backoff < MAX_BACKOFF) {
+            this.backoff++;
+        }
+    }
+
+    /**
+     * @param throttle extra doublings applied to every tag while the server is overloaded
+     * @return ticks to wait after the last refresh before the next one
+     */
+    long getIntervalTicks(int throttle) {
+        final long periodTicks = RefreshScheduler.toTicks(periodMillis);
+        final long maxTicks = RefreshScheduler.toTicks(maxPeriodMillis);
+        final long backedOff = Math.min(periodTicks << backoff, maxTicks);
+
+        if (throttle == 0) return backedOff;
+
+        // Overload slows everything down, but never past the ceiling of a group that has one
+        final long throttleCeiling = maxTicks > periodTicks ? maxTicks : periodTicks << RefreshScheduler.MAX_THROTTLE;
+
+        return Math.max(backedOff, Math.min(periodTicks << throttle, throttleCeiling));
+    }
+
+    /**
+     * Changes the period in place, e.g when the tag's group changes.
+     *
+     * @param periodMillis    how often to refresh while the output keeps changing
+     * @param maxPeriodMillis the longest the period may back off to
+     */
+    public void setPeriod(long periodMillis, long maxPeriodMillis) {
+        final long max = Math.max(periodMillis, maxPeriodMillis);
+
+        if (periodMillis == this.periodMillis && max == this.maxPeriodMillis) return;
+
+        final RefreshScheduler scheduler = NameTags.getInstance().getRefreshScheduler();
+
+        synchronized (registration) {
+            // A tag destroyed mid-refresh must not be put back into the scheduler
+            if (destroyed) return;
+
+            // The scheduler groups traits by period, so move it over rather than tearing the trait down
+            scheduler.unregister(this);
+            this.periodMillis = periodMillis;
+            this.maxPeriodMillis = max;
+            this.backoff = 0;
+            scheduler.register(this);
+        }
+    }
+
+    /**
+     * Drops back to the shortest period, for changes noticed outside a refresh like a group change.
+     */
+    public void wake() {
+        this.backoff = 0;
+    }
+
+    public long getPeriodMillis() {
+        return periodMillis;
+    }
+
+    public long getMaxPeriodMillis() {
+        return maxPeriodMillis;
+    }
+
+    public int getBackoff() {
+        return backoff;
     }
 
     public void setPaused(boolean paused) {
@@ -54,9 +241,12 @@ public class RefreshTrait extends Trait {
 
     @Override
     public void onDestroy() {
-        setPaused(true);
-        if (task != null) {
-            task.cancel();
+        synchronized (registration) {
+            destroyed = true;
+            setPaused(true);
+            NameTags.getInstance()
+                .getRefreshScheduler()
+                .unregister(this);
         }
     }
 
@@ -72,6 +262,14 @@ public class RefreshTrait extends Trait {
         return new RefreshTrait(plugin, millis, TimeUnit.MILLISECONDS, update);
     }
 
+    public static @NotNull RefreshTrait adaptive(@NotNull JavaPlugin plugin, long millis, long maxMillis, @NotNull Predicate<NameTagEntity> update) {
+        return new RefreshTrait(plugin, millis, maxMillis, update);
+    }
+
+    public static <S> @NotNull RefreshTrait adaptive(@NotNull JavaPlugin plugin, long millis, long maxMillis, @NotNull RefreshTask<S> task) {
+        return new RefreshTrait(plugin, millis, maxMillis, task);
+    }
+
     public static @NotNull RefreshTrait ofTicks(@NotNull JavaPlugin plugin, long ticks, Consumer<NameTagEntity> update) {
         return ofMillis(plugin, ticks * 50, update);
     }
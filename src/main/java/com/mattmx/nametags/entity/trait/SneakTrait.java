@@ -35,7 +35,7 @@ public class SneakTrait extends Trait {
                 meta.setTextOpacity(previousTextOpacity);
             }
         });
-        getTag().getPassenger().refresh();
+        getTag().flushMeta();
     }
 
     public Color withCustomSneakOpacity(@NotNull Color previous) {
@@ -48,8 +48,8 @@ public class SneakTrait extends Trait {
 
     public int getCustomOpacity() {
         return NameTags.getInstance()
-            .getConfig()
-            .getInt("sneak.opacity", 70);
+            .getSettings()
+            .sneakOpacity();
     }
 
     public boolean isSneaking() {
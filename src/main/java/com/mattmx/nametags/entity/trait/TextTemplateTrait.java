@@ -0,0 +1,163 @@
+package com.mattmx.nametags.entity.trait;
+
+import com.github.retrooper.packetevents.protocol.entity.data.EntityData;
+import com.github.retrooper.packetevents.protocol.entity.data.EntityDataTypes;
+import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerEntityMetadata;
+import com.mattmx.nametags.NameTags;
+import com.mattmx.nametags.OutgoingPacketListener;
+import com.mattmx.nametags.config.TextTemplate;
+import com.mattmx.nametags.entity.NameTagEntity;
+import net.kyori.adventure.text.Component;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the render state of the template a tag is currently displaying, along with the
+ * per-viewer text of templates that use relational placeholders.
+ */
+public class TextTemplateTrait extends Trait {
+    private volatile @Nullable TextTemplate.Renderer renderer = null;
+    private final @NotNull Map<UUID, RelationalText> relationalTexts = new ConcurrentHashMap<>();
+
+    public @NotNull TextTemplate.Renderer getRenderer(@NotNull TextTemplate template) {
+        TextTemplate.Renderer renderer = this.renderer;
+
+        // The group changed or the config was reloaded, start from scratch
+        if (renderer == null || renderer.getTemplate() != template) {
+            renderer = this.renderer = template.newRenderer();
+            relationalTexts.clear();
+        }
+        return renderer;
+    }
+
+    public @Nullable TextTemplate.Renderer getCurrentRenderer() {
+        return renderer;
+    }
+
+    public boolean isRelational() {
+        final TextTemplate.Renderer renderer = this.renderer;
+        return renderer != null && renderer.getTemplate().isRelational();
+    }
+
+    /**
+     * Re-renders the relational text of any viewer whose entry is missing, has expired or was
+     * rendered from an older version of the text, then sends it to those it changed for.
+     * <p>
+     * Relational placeholders read both players, so this runs on the main thread on Paper and on the
+     * owner's region on Folia, where viewers on other regions are left with what they have. Placeholders
+     * are rendered without holding the tag's lock, only the results are published under it.
+     * <p>
+     * At least one viewer is rendered per call, after that it stops once {@code deadlineNanos} has
+     * passed. The viewers it didn't get to are still expired, so the next call picks them up.
+     *
+     * @param ttlMillis     how long a rendered entry stays fresh
+     * @param deadlineNanos the {@link System#nanoTime()} to stop rendering at
+     * @return false if it stopped at the deadline with viewers left to render
+     */
+    public boolean updateRelational(long ttlMillis, long deadlineNanos) {
+        final NameTagEntity tag = getTag();
+
+        if (!(tag.getBukkitEntity() instanceof Player from)) return true;
+
+        final TextTemplate.Renderer renderer;
+        final TextTemplate.RelationalSource source;
+        synchronized (tag) {
+            renderer = this.renderer;
+
+            if (renderer == null || !renderer.getTemplate().isRelational()) {
+                relationalTexts.clear();
+                return true;
+            }
+
+            source = renderer.getRelationalSource();
+        }
+
+        if (source == null) return true;
+
+        final Collection<UUID> viewers = tag.getPassenger().getViewers();
+        final long now = System.currentTimeMillis();
+        Map<UUID, Component> rendered = null;
+        boolean finished = true;
+
+        relationalTexts.keySet().retainAll(viewers);
+
+        for (final UUID viewer : viewers) {
+            final RelationalText existing = relationalTexts.get(viewer);
+
+            if (existing != null && existing.base() == source.getBase() && existing.expiresAt() > now) continue;
+
+            final Player to = Bukkit.getPlayer(viewer);
+
+            if (to == null || !Bukkit.isOwnedByCurrentRegion(to)) continue;
+
+            if (rendered == null) {
+                rendered = new HashMap<>();
+            } else if (System.nanoTime() - deadlineNanos >= 0L) {
+                finished = false;
+                break;
+            }
+            rendered.put(viewer, source.render(from, to));
+        }
+
+        if (rendered == null) return true;
+
+        synchronized (tag) {
+            // The text changed while rendering, these are out of date already and the next pass redoes them
+            if (this.renderer != renderer || renderer.getRelationalSource() != source) return finished;
+
+            for (final Map.Entry<UUID, Component> entry : rendered.entrySet()) {
+                final RelationalText previous = relationalTexts.put(
+                    entry.getKey(),
+                    new RelationalText(source.getBase(), entry.getValue(), now + ttlMillis)
+                );
+
+                // Until their first render viewers are shown the base text
+                final Component shown = previous != null ? previous.text() : source.getBase();
+
+                if (!Objects.equals(entry.getValue(), shown)) {
+                    sendText(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        return finished;
+    }
+
+    private void sendText(@NotNull UUID viewer, @Nullable Component text) {
+        if (text == null) return;
+
+        NameTags.getInstance()
+            .getPacketBatcher()
+            .enqueue(viewer, new WrapperPlayServerEntityMetadata(
+                getTag().getPassenger().getEntityId(),
+                List.of(new EntityData(OutgoingPacketListener.TEXT_DISPLAY_TEXT_INDEX, EntityDataTypes.ADV_COMPONENT, text))
+            ));
+    }
+
+    /**
+     * @param viewer the player receiving the text
+     * @return the last rendered text for that viewer, which may be stale, or null if there isn't one yet
+     */
+    public @Nullable Component getRelationalText(@NotNull UUID viewer) {
+        final RelationalText text = relationalTexts.get(viewer);
+        return text == null ? null : text.text();
+    }
+
+    @Override
+    public void onDestroy() {
+        relationalTexts.clear();
+    }
+
+    private record RelationalText(@Nullable Component base, @Nullable Component text, long expiresAt) {
+    }
+}
@@ -0,0 +1,32 @@
+package com.mattmx.nametags.hook;
+
+import com.mattmx.nametags.NameTags;
+import net.luckperms.api.LuckPerms;
+import net.luckperms.api.LuckPermsProvider;
+import net.luckperms.api.event.user.UserDataRecalculateEvent;
+import org.bukkit.Bukkit;
+import org.jetbrains.annotations.NotNull;
+
+public class LuckPermsHook {
+
+    public static void inject(@NotNull NameTags plugin) {
+        Bukkit.getGlobalRegionScheduler().run(plugin, (task) -> start());
+    }
+
+    private static void start() {
+        final boolean isLuckPerms = Bukkit.getPluginManager().isPluginEnabled("LuckPerms");
+
+        if (!isLuckPerms) return;
+
+        NameTags plugin = NameTags.getInstance();
+        LuckPerms luckPerms = LuckPermsProvider.get();
+
+        plugin.getLogger().info("Registering LuckPerms group change listener.");
+
+        // Drop the cached group whenever LuckPerms recalculates a user's permissions
+        luckPerms.getEventBus().subscribe(plugin, UserDataRecalculateEvent.class, (event) ->
+            plugin.getGroupCache().invalidate(event.getUser().getUniqueId())
+        );
+    }
+
+}
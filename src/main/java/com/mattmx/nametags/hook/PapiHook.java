@@ -1,5 +1,7 @@
 package com.mattmx.nametags.hook;
 
+import com.mattmx.nametags.stats.Metrics;
+import com.mattmx.nametags.stats.Stage;
 import me.clip.placeholderapi.PlaceholderAPI;
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
@@ -15,7 +17,9 @@ public class PapiHook {
 
         String formatted = text;
 
+        final long start = Metrics.start();
         formatted = PlaceholderAPI.setPlaceholders(one, formatted);
+        Metrics.record(Stage.PLACEHOLDERS, start);
 
         return formatted;
     }
@@ -25,7 +29,9 @@ public class PapiHook {
 
         String formatted = text;
 
+        final long start = Metrics.start();
         formatted = PlaceholderAPI.setRelationalPlaceholders(one, two, formatted);
+        Metrics.record(Stage.RELATIONAL_PLACEHOLDERS, start);
 
         return formatted;
     }
@@ -0,0 +1,300 @@
+package com.mattmx.nametags.hook;
+
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+
+/**
+ * Resolves PlaceholderAPI placeholders on virtual threads so one slow expansion can't hold up a refresh.
+ * <p>
+ * {@link #resolve(Player, String[][])} never waits. It starts a lookup for every placeholder and hands
+ * back their last known values, and the refresh thread later waits for the fresh ones in
+ * {@link Resolution#await()} until the deadline, counted from when it starts waiting. Lookups that
+ * miss it keep running in the background so the next refresh picks up the result instead of starting
+ * another one. A placeholder that has never resolved is waited for the same way, even if its lookup
+ * was started by an earlier refresh, rather than showing up blank.
+ * <p>
+ * Expansions that read state only safe on the player's own thread are configured to resolve inline.
+ * Everything else is handed the live {@link Player} on a virtual thread, since PlaceholderAPI expansions
+ * have no way to be given anything less. An {@code OfflinePlayer} would not help, Bukkit returns the
+ * online player for it and most expansions call {@code getPlayer()} on it anyway.
+ */
+public class PlaceholderResolver {
+    private final @NotNull JavaPlugin plugin;
+    private final @NotNull ExecutorService executor = Executors.newThreadPerTaskExecutor(
+        Thread.ofVirtual()
+            .name("nametags-placeholders-", 0)
+            .factory()
+    );
+    private final @NotNull Map<UUID, Map<String, Slot>> players = new ConcurrentHashMap<>();
+    private final @NotNull Map<String, Counters> counters = new ConcurrentHashMap<>();
+    private volatile long deadlineNanos = 0L;
+    private volatile @NotNull Set<String> inlineExpansions = Set.of();
+
+    public PlaceholderResolver(@NotNull JavaPlugin plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * @param deadlineMillis how long a refresh waits for its placeholders, 0 to resolve them inline
+     */
+    public void setDeadline(long deadlineMillis) {
+        this.deadlineNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, deadlineMillis));
+    }
+
+    /**
+     * @param identifiers expansion identifiers, e.g {@code player} for {@code %player_health%}, that are
+     *                    always resolved inline on the player's thread
+     */
+    public void setInlineExpansions(@NotNull Collection<String> identifiers) {
+        this.inlineExpansions = identifiers.stream()
+            .map((identifier) -> identifier.toLowerCase(Locale.ROOT))
+            .collect(Collectors.toUnmodifiableSet());
+    }
+
+    /**
+     * Resolves each line's placeholders for a player without blocking. Has to run on the player's thread,
+     * since inline placeholders are resolved right away.
+     *
+     * @param player       the player the placeholders are resolved for
+     * @param placeholders the placeholders of each line, null for lines without any
+     * @return the values, which may still be waiting on background lookups
+     */
+    public @NotNull Resolution resolve(@NotNull Player player, @NotNull String[][] placeholders) {
+        final String[][] values = new String[placeholders.length][];
+        final long budget = this.deadlineNanos;
+        final boolean inline = budget == 0L || !PapiHook.isPapi();
+        final Slot[][] slots = new Slot[placeholders.length][];
+        final CompletableFuture<?>[][] started = new CompletableFuture<?>[placeholders.length][];
+        Map<String, Slot> known = null;
+
+        for (int i = 0; i < placeholders.length; i++) {
+            if (placeholders[i] == null) continue;
+
+            values[i] = new String[placeholders[i].length];
+            for (int slot = 0; slot < placeholders[i].length; slot++) {
+                final String placeholder = placeholders[i][slot];
+
+                if (inline || isInline(placeholder)) {
+                    values[i][slot] = PapiHook.setPlaceholders(player, placeholder);
+                    continue;
+                }
+
+                if (known == null) {
+                    known = players.computeIfAbsent(player.getUniqueId(), (k) -> new ConcurrentHashMap<>());
+                }
+
+                if (slots[i] == null) {
+                    slots[i] = new Slot[placeholders[i].length];
+                    started[i] = new CompletableFuture<?>[placeholders[i].length];
+                }
+
+                final Slot background = known.computeIfAbsent(placeholder, Slot::new);
+                slots[i][slot] = background;
+                started[i][slot] = background.start(player);
+                values[i][slot] = background.last();
+            }
+        }
+
+        return new Resolution(values, known == null ? null : slots, started, budget);
+    }
+
+    private boolean isInline(@NotNull String placeholder) {
+        final Set<String> identifiers = this.inlineExpansions;
+
+        if (identifiers.isEmpty()) return false;
+
+        // %identifier_params%
+        final int separator = placeholder.indexOf('_');
+        final String identifier = separator < 0
+            ? placeholder.substring(1, placeholder.length() - 1)
+            : placeholder.substring(1, separator);
+
+        return identifiers.contains(identifier.toLowerCase(Locale.ROOT));
+    }
+
+    private @NotNull String await(@NotNull Slot slot, @Nullable CompletableFuture<?> future, long deadline) {
+        // Still running from an earlier refresh, only worth waiting for if there is nothing to show yet
+        if (future == null) {
+            future = slot.hasValue() ? null : slot.running();
+
+            if (future == null) {
+                return fallback(slot);
+            }
+        }
+
+        try {
+            future.get(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            return slot.last();
+        } catch (TimeoutException exception) {
+            counters(slot.placeholder).timeouts.increment();
+        } catch (ExecutionException exception) {
+            plugin.getLogger().log(Level.WARNING, "Failed to resolve " + slot.placeholder, exception.getCause());
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+
+        return fallback(slot);
+    }
+
+    private @NotNull String fallback(@NotNull Slot slot) {
+        counters(slot.placeholder).fallbacks.increment();
+        return slot.last();
+    }
+
+    private @NotNull Counters counters(@NotNull String placeholder) {
+        return counters.computeIfAbsent(placeholder, (k) -> new Counters());
+    }
+
+    /**
+     * Drops the last known values of a player, e.g when they quit.
+     *
+     * @param player the player's id
+     */
+    public void forget(@NotNull UUID player) {
+        players.remove(player);
+    }
+
+    public void stop() {
+        executor.shutdownNow();
+        players.clear();
+    }
+
+    /**
+     * @return placeholders that have timed out or fallen back at least once
+     */
+    public @NotNull Map<String, Counters> getCounters() {
+        return counters;
+    }
+
+    public long getTimeoutCount() {
+        return counters.values()
+            .stream()
+            .mapToLong(Counters::getTimeouts)
+            .sum();
+    }
+
+    public long getFallbackCount() {
+        return counters.values()
+            .stream()
+            .mapToLong(Counters::getFallbacks)
+            .sum();
+    }
+
+    /**
+     * The placeholder values of one refresh. Slots resolved in the background hold their last known
+     * value until {@link #await()} is called.
+     */
+    public final class Resolution {
+        private final @NotNull String[][] values;
+        private final @Nullable Slot[][] slots;
+        private final @NotNull CompletableFuture<?>[][] started;
+        private final long budgetNanos;
+
+        private Resolution(@NotNull String[][] values, @Nullable Slot[][] slots, @NotNull CompletableFuture<?>[][] started, long budgetNanos) {
+            this.values = values;
+            this.slots = slots;
+            this.started = started;
+            this.budgetNanos = budgetNanos;
+        }
+
+        /**
+         * Waits for the background lookups until the deadline, off the player's thread. Any that are
+         * still running fall back to their last known value.
+         * <p>
+         * The deadline starts here rather than in {@link #resolve(Player, String[][])}, which may have run a
+         * whole tick earlier on another thread.
+         *
+         * @return the values of each line's slots, null for lines without any
+         */
+        public @NotNull String[][] await() {
+            if (slots == null) return values;
+
+            final long deadline = System.nanoTime() + budgetNanos;
+
+            for (int i = 0; i < slots.length; i++) {
+                if (slots[i] == null) continue;
+
+                for (int slot = 0; slot < slots[i].length; slot++) {
+                    if (slots[i][slot] == null) continue;
+
+                    values[i][slot] = PlaceholderResolver.this.await(slots[i][slot], started[i][slot], deadline);
+                }
+            }
+
+            return values;
+        }
+    }
+
+    public static final class Counters {
+        private final @NotNull LongAdder timeouts = new LongAdder();
+        private final @NotNull LongAdder fallbacks = new LongAdder();
+
+        /**
+         * @return how many times the placeholder missed its deadline
+         */
+        public long getTimeouts() {
+            return timeouts.sum();
+        }
+
+        /**
+         * @return how many times a last known value was shown instead of a fresh one
+         */
+        public long getFallbacks() {
+            return fallbacks.sum();
+        }
+    }
+
+    /**
+     * One placeholder of one player.
+     */
+    private final class Slot {
+        private final @NotNull String placeholder;
+        private volatile @Nullable String value = null;
+        private @Nullable CompletableFuture<?> running = null;
+
+        private Slot(@NotNull String placeholder) {
+            this.placeholder = placeholder;
+        }
+
+        private @NotNull String last() {
+            final String value = this.value;
+            return value == null ? "" : value;
+        }
+
+        private boolean hasValue() {
+            return value != null;
+        }
+
+        private synchronized @Nullable CompletableFuture<?> running() {
+            return running;
+        }
+
+        /**
+         * @return the new lookup, or null if the previous one hasn't finished yet
+         */
+        private synchronized @Nullable CompletableFuture<?> start(@NotNull Player player) {
+            if (running != null && !running.isDone()) return null;
+
+            running = CompletableFuture.runAsync(() -> value = PapiHook.setPlaceholders(player, placeholder), executor);
+            return running;
+        }
+    }
+}
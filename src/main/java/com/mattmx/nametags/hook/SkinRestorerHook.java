@@ -9,13 +9,12 @@ import net.skinsrestorer.api.SkinsRestorerProvider;
 import net.skinsrestorer.api.event.SkinApplyEvent;
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
-import org.bukkit.scheduler.BukkitRunnable;
 import org.jetbrains.annotations.NotNull;
 
 public class SkinRestorerHook {
 
     public static void inject(@NotNull NameTags plugin) {
-        Bukkit.getScheduler().runTask(plugin, SkinRestorerHook::start);
+        Bukkit.getGlobalRegionScheduler().run(plugin, (task) -> start());
     }
 
     private static void start() {
@@ -39,31 +38,29 @@ public class SkinRestorerHook {
 
         if (player == null) return;
 
-        new BukkitRunnable() {
-            @Override
-            public void run() {
-                NameTags plugin = NameTags.getInstance();
+        // On the player's own thread, the tag is rebuilt from their live state
+        player.getScheduler().run(NameTags.getInstance(), (task) -> {
+            NameTags plugin = NameTags.getInstance();
 
-                plugin.getEntityManager().removeLastSentPassengersCache(player.getEntityId());
+            plugin.getEntityManager().removeLastSentPassengersCache(player.getEntityId());
 
-                NameTagEntity entity = plugin.getEntityManager().removeEntity(player);
+            NameTagEntity entity = plugin.getEntityManager().removeEntity(player);
 
-                if (entity != null) {
-                    entity.destroy();
-                }
+            if (entity != null) {
+                entity.destroy();
+            }
 
-                NameTagEntity newEntity = plugin.getEntityManager().getOrCreateNameTagEntity(player);
-                newEntity.updateVisibility();
-                newEntity.updateLocation();
+            NameTagEntity newEntity = plugin.getEntityManager().getOrCreateNameTagEntity(player);
+            newEntity.updateVisibility();
+            newEntity.updateLocation();
 
-                if (plugin.getConfig().getBoolean("show-self", false)) {
-                    newEntity.getPassenger().removeViewer(newEntity.getBukkitEntity().getUniqueId());
-                    newEntity.getPassenger().addViewer(newEntity.getBukkitEntity().getUniqueId());
-                    newEntity.sendPassengerPacket(event.getPlayer(Player.class));
+            if (plugin.getSettings().showSelf()) {
+                newEntity.removeViewer(newEntity.getBukkitEntity().getUniqueId());
+                newEntity.addViewer(newEntity.getBukkitEntity().getUniqueId());
+                newEntity.sendPassengerPacket(event.getPlayer(Player.class));
 
-                    player.sendMessage(Component.text("Please re-join for update your nametag!").color(NamedTextColor.GREEN));
-                }
+                player.sendMessage(Component.text("Please re-join for update your nametag!").color(NamedTextColor.GREEN));
             }
-        }.runTask(NameTags.getInstance());
+        }, null);
     }
 }
\ No newline at end of file
@@ -0,0 +1,110 @@
+package com.mattmx.nametags.stats;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram in nanoseconds.
+ * <p>
+ * Values are bucketed by power of two with {@value #SUB_BUCKETS} linear sub-buckets each, so a
+ * percentile is reported as the upper bound of its bucket and is at most ~25% too high. Recording
+ * is a couple of bit operations and two {@link LongAdder} increments.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final @NotNull LongAdder[] counts = new LongAdder[BUCKETS];
+    private final @NotNull LongAdder count = new LongAdder();
+    private final @NotNull LongAdder total = new LongAdder();
+    private final @NotNull LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        final long value = Math.max(0L, nanos);
+
+        counts[indexOf(value)].increment();
+        count.increment();
+        total.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * @param percentile between 0 and 1
+     * @return the upper bound of the bucket the percentile falls in, or 0 if nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        final long[] snapshot = new long[BUCKETS];
+        long recorded = 0L;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts[i].sum();
+            recorded += snapshot[i];
+        }
+
+        if (recorded == 0L) return 0L;
+
+        final long target = Math.max(1L, (long) Math.ceil(recorded * percentile));
+        long seen = 0L;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+
+            if (seen >= target) {
+                return Math.min(upperBound(i), getMax());
+            }
+        }
+
+        return getMax();
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public long getMean() {
+        final long count = getCount();
+
+        return count == 0L ? 0L : total.sum() / count;
+    }
+
+    public void reset() {
+        for (final LongAdder bucket : counts) {
+            bucket.reset();
+        }
+        count.reset();
+        total.reset();
+        max.reset();
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+
+        // Position of the highest bit picks the power of two, the bits below it pick the sub-bucket
+        final int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS - 1;
+        final int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS) return index;
+
+        final int shift = index / SUB_BUCKETS - 1;
+        final long sub = index % SUB_BUCKETS;
+
+        return ((SUB_BUCKETS + sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,53 @@
+package com.mattmx.nametags.stats;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Entry point for timing the hot paths.
+ * <p>
+ * Call sites take {@link #start()} before the work and pass it to {@link #record(Stage, long)} after.
+ * While disabled {@code start} returns 0 without reading the clock and {@code record} ignores it, so
+ * the cost is a single volatile read.
+ */
+public final class Metrics {
+    private static volatile boolean enabled = false;
+    private static volatile long since = System.nanoTime();
+
+    private Metrics() {
+    }
+
+    public static long start() {
+        return enabled ? System.nanoTime() : 0L;
+    }
+
+    public static void record(@NotNull Stage stage, long start) {
+        if (start == 0L) return;
+
+        stage.getHistogram().record(System.nanoTime() - start);
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        if (enabled && !Metrics.enabled) {
+            reset();
+        }
+        Metrics.enabled = enabled;
+    }
+
+    public static void reset() {
+        for (final Stage stage : Stage.values()) {
+            stage.getHistogram().reset();
+        }
+        since = System.nanoTime();
+    }
+
+    /**
+     * @return nanoseconds since recording started or was last reset, for turning counts into rates
+     */
+    public static long getElapsedNanos() {
+        return System.nanoTime() - since;
+    }
+}
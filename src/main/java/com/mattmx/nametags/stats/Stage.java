@@ -0,0 +1,38 @@
+package com.mattmx.nametags.stats;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The parts of the refresh and packet pipeline that are timed when stats are enabled.
+ */
+public enum Stage {
+    CAPTURE("capture"),
+    SNAPSHOT("snapshot"),
+    REFRESH("refresh"),
+    PLACEHOLDERS("placeholders"),
+    RELATIONAL_PLACEHOLDERS("relational placeholders"),
+    FORMAT("format"),
+    TEXT_META("text meta"),
+    STYLE_META("style meta"),
+    PACKET_FLUSH("packet flush"),
+    LISTENER_SPAWN("listener spawn"),
+    LISTENER_METADATA("listener metadata"),
+    LISTENER_DESTROY("listener destroy"),
+    LISTENER_EFFECT("listener effect"),
+    LISTENER_PASSENGERS("listener passengers");
+
+    private final @NotNull String displayName;
+    private final @NotNull LatencyHistogram histogram = new LatencyHistogram();
+
+    Stage(@NotNull String displayName) {
+        this.displayName = displayName;
+    }
+
+    public @NotNull String getDisplayName() {
+        return displayName;
+    }
+
+    public @NotNull LatencyHistogram getHistogram() {
+        return histogram;
+    }
+}
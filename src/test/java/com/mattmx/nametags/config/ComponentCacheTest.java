@@ -0,0 +1,33 @@
+package com.mattmx.nametags.config;
+
+import net.kyori.adventure.text.Component;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class ComponentCacheTest {
+
+    @Test
+    public void test_hitReturnsSameInstance() {
+        final ComponentCache cache = new ComponentCache(64);
+
+        final Component first = cache.get("hello", Component::text);
+        final Component second = cache.get("hello", Component::text);
+
+        Assertions.assertSame(first, second);
+        Assertions.assertEquals(1, cache.getHits());
+        Assertions.assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void test_evictsWhenFull() {
+        final ComponentCache cache = new ComponentCache(32);
+
+        for (int i = 0; i < 1000; i++) {
+            cache.get("line" + i, Component::text);
+        }
+
+        Assertions.assertTrue(cache.size() <= 32);
+        Assertions.assertEquals(1000, cache.getMisses());
+    }
+
+}
@@ -0,0 +1,128 @@
+package com.mattmx.nametags.config;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.TextComponent;
+import net.kyori.adventure.text.format.Style;
+import net.kyori.adventure.text.format.TextColor;
+import net.kyori.adventure.text.format.TextDecoration;
+import net.kyori.adventure.text.minimessage.MiniMessage;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class LegacyLexerTest {
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+        "",
+        "Steve",
+        "&cSteve",
+        "§cSteve",
+        "&l&cBold then red",
+        "&c&lRed then bold",
+        "&x&c&7&0&0&3&9[Admin] &x&9&0&0&c&3&fCoyotea&r",
+        "§x§c§7§0§0§3§9[Admin] Steve",
+        "&#c70039[Admin] &#900C3FSteve",
+        "&#c7003[Short] &#zzzzzz",
+        "&x&c&7&0&0&3[Short]",
+        "&7[&fMember&7] &oSteve&r plain",
+        "&k&l&m&n&oall of them&r none",
+        "&z not a code & alone &",
+        "&&cdouble",
+        "§ §z",
+        "trailing &",
+        "&C&LUpper case",
+        "<red>mini</red> &lbold <#ff0000>hex",
+        "<gradient:#ff0000:#00ff00>&lSteve</gradient> &7| <green>20❤",
+        "<hover:show_text:'&cHi'>hover</hover>",
+        "escaped \\<red> &cred",
+    })
+    public void test_matchesPreviousOutput(String line) {
+        Assertions.assertEquals(flatten(previousLegacy(line)), flatten(LegacyLexer.legacy(line)), "legacy");
+        Assertions.assertEquals(flatten(previousSmart(line)), flatten(LegacyLexer.smart(line)), "smart");
+        Assertions.assertEquals(previousSmartString(line), LegacyLexer.toMiniMessage(line));
+    }
+
+    /**
+     * Visible text with the effective style of every run, so differently shaped trees that look the
+     * same compare equal.
+     */
+    private static List<String> flatten(Component component) {
+        final List<String> runs = new ArrayList<>();
+        flatten(component, Style.empty(), runs);
+        return runs;
+    }
+
+    private static void flatten(Component component, Style parent, List<String> runs) {
+        final Style style = normalize(parent.merge(component.style()));
+
+        if (component instanceof TextComponent text && !text.content().isEmpty()) {
+            final String key = style.toString();
+            final int last = runs.size() - 1;
+
+            // Adjacent runs with the same style look the same as one run
+            if (last >= 0 && runs.get(last).startsWith(key + "|")) {
+                runs.set(last, runs.get(last) + text.content());
+            } else {
+                runs.add(key + "|" + text.content());
+            }
+        }
+
+        for (final Component child : component.children()) {
+            flatten(child, style, runs);
+        }
+    }
+
+    private static Style normalize(Style style) {
+        Style normalized = style.color(style.color() == null ? null : TextColor.color(style.color().value()));
+
+        // An explicit false renders the same as never set
+        for (final TextDecoration decoration : TextDecoration.values()) {
+            if (normalized.decoration(decoration) == TextDecoration.State.FALSE) {
+                normalized = normalized.decoration(decoration, TextDecoration.State.NOT_SET);
+            }
+        }
+
+        return normalized;
+    }
+
+    private static Component previousLegacy(String line) {
+        return TextFormatter.getLegacySerializer().deserialize(TextFormatter.convertLegacyHex(line.replace('§', '&')));
+    }
+
+    private static Component previousSmart(String line) {
+        return MiniMessage.miniMessage().deserialize(previousSmartString(line));
+    }
+
+    private static String previousSmartString(String line) {
+        String mutableLine = TextFormatter.convertLegacyHex(line.replace('§', '&'));
+
+        mutableLine = TextFormatter.convertLegacyHexToMiniMessage(mutableLine);
+        return mutableLine
+            .replace("&0", "<black>")
+            .replace("&1", "<dark_blue>")
+            .replace("&2", "<dark_green>")
+            .replace("&3", "<dark_aqua>")
+            .replace("&4", "<dark_red>")
+            .replace("&5", "<dark_purple>")
+            .replace("&6", "<gold>")
+            .replace("&7", "<gray>")
+            .replace("&8", "<dark_gray>")
+            .replace("&9", "<blue>")
+            .replace("&a", "<green>")
+            .replace("&b", "<aqua>")
+            .replace("&c", "<red>")
+            .replace("&d", "<light_purple>")
+            .replace("&e", "<yellow>")
+            .replace("&f", "<white>")
+            .replace("&k", "<obf>")
+            .replace("&l", "<b>")
+            .replace("&m", "<st>")
+            .replace("&n", "<u>")
+            .replace("&o", "<i>")
+            .replace("&r", "<reset>");
+    }
+}
@@ -0,0 +1,56 @@
+package com.mattmx.nametags.entity;
+
+import com.mattmx.nametags.config.TagStyle;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+public class CellGridTest {
+
+    @Test
+    public void test_defaultRangeDropsFarViewer() {
+        final CellGrid grid = new CellGrid();
+        final UUID world = UUID.randomUUID();
+        final UUID owner = UUID.randomUUID();
+        final UUID near = UUID.randomUUID();
+        final UUID far = UUID.randomUUID();
+
+        // range: default with a simulation distance of 10, update-distance-scale: 1.0, spigot's default tracking range
+        final double range = CellGrid.updateRange(TagStyle.defaultRange(10), 1.0, 48.0);
+
+        grid.update(owner, world, 0, 0);
+        grid.update(near, world, 30, 0);
+        grid.update(far, world, 200, 0);
+
+        Assertions.assertEquals(48.0, range);
+        Assertions.assertTrue(grid.isWithin(owner, near, range));
+        Assertions.assertFalse(grid.isWithin(owner, far, range));
+    }
+
+    @Test
+    public void test_smallViewRange() {
+        final CellGrid grid = new CellGrid();
+        final UUID world = UUID.randomUUID();
+        final UUID owner = UUID.randomUUID();
+        final UUID viewer = UUID.randomUUID();
+
+        grid.update(owner, world, 0, 0);
+        grid.update(viewer, world, 60, 0);
+
+        Assertions.assertTrue(grid.isWithin(owner, viewer, CellGrid.updateRange(0.5f, 1.0, 48.0)));
+        Assertions.assertFalse(grid.isWithin(owner, viewer, CellGrid.updateRange(0.25f, 1.0, 48.0)));
+    }
+
+    @Test
+    public void test_otherWorld() {
+        final CellGrid grid = new CellGrid();
+        final UUID owner = UUID.randomUUID();
+        final UUID viewer = UUID.randomUUID();
+
+        grid.update(owner, UUID.randomUUID(), 0, 0);
+        grid.update(viewer, UUID.randomUUID(), 0, 0);
+
+        Assertions.assertFalse(grid.isWithin(owner, viewer, 48.0));
+    }
+}
@@ -0,0 +1,50 @@
+package com.mattmx.nametags.entity;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class EntityIdIndexTest {
+
+    @Test
+    public void test_putGetRemove() {
+        final EntityIdIndex<String> index = new EntityIdIndex<>();
+
+        for (int i = -500; i < 500; i++) {
+            index.put(i, "value" + i);
+        }
+
+        Assertions.assertEquals(1000, index.size());
+        for (int i = -500; i < 500; i++) {
+            Assertions.assertEquals("value" + i, index.get(i));
+        }
+        Assertions.assertNull(index.get(500));
+
+        for (int i = -500; i < 500; i += 2) {
+            Assertions.assertTrue(index.remove(i, index.get(i)));
+        }
+
+        Assertions.assertEquals(500, index.size());
+        for (int i = -500; i < 500; i++) {
+            if ((i & 1) == 0) {
+                Assertions.assertNull(index.get(i));
+            } else {
+                Assertions.assertEquals("value" + i, index.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void test_removeOnlyExpectedValue() {
+        final EntityIdIndex<String> index = new EntityIdIndex<>();
+
+        index.put(7, "new");
+
+        Assertions.assertFalse(index.remove(7, "old"));
+        Assertions.assertEquals("new", index.get(7));
+
+        index.put(7, "newer");
+        Assertions.assertEquals(1, index.size());
+        Assertions.assertEquals("newer", index.get(7));
+    }
+
+}
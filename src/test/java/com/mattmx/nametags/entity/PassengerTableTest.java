@@ -0,0 +1,54 @@
+package com.mattmx.nametags.entity;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class PassengerTableTest {
+
+    @Test
+    public void test_putGetRemove() {
+        final PassengerTable table = new PassengerTable(256);
+
+        for (int i = 0; i < 100; i++) {
+            table.put(new PassengerState(i, new int[]{i + 1000}));
+        }
+
+        for (int i = 0; i < 100; i++) {
+            final PassengerState state = table.get(i);
+
+            Assertions.assertNotNull(state);
+            Assertions.assertArrayEquals(new int[]{i + 1000}, state.getPassengers());
+        }
+        Assertions.assertNull(table.get(100));
+
+        table.remove(42);
+        Assertions.assertNull(table.get(42));
+        Assertions.assertNotNull(table.get(43));
+    }
+
+    @Test
+    public void test_putReplacesSameEntity() {
+        final PassengerTable table = new PassengerTable(16);
+
+        table.put(new PassengerState(7, new int[]{1}));
+        table.put(new PassengerState(7, new int[]{1, 2}));
+
+        Assertions.assertEquals(1, table.size());
+        Assertions.assertArrayEquals(new int[]{1, 2}, table.get(7).getPassengers());
+    }
+
+    @Test
+    public void test_staysBounded() {
+        final PassengerTable table = new PassengerTable(64);
+
+        for (int i = 0; i < 10_000; i++) {
+            table.put(new PassengerState(i, new int[]{i}));
+
+            // The newest entry is always reachable
+            Assertions.assertNotNull(table.get(i));
+        }
+
+        Assertions.assertTrue(table.size() <= table.capacity());
+        Assertions.assertTrue(table.getEvictions() > 0L);
+    }
+}
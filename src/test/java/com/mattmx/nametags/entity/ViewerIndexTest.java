@@ -0,0 +1,48 @@
+package com.mattmx.nametags.entity;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+public class ViewerIndexTest {
+
+    @Test
+    public void test_addRemove() {
+        final ViewerIndex<String> index = new ViewerIndex<>();
+        final UUID viewer = UUID.randomUUID();
+
+        index.add(viewer, "a");
+        index.add(viewer, "b");
+        index.remove(viewer, "a");
+
+        Assertions.assertEquals(Set.of("b"), index.getTags(viewer));
+
+        index.remove(viewer, "b");
+
+        Assertions.assertTrue(index.getTags(viewer).isEmpty());
+        Assertions.assertEquals(0, index.getViewerCount());
+    }
+
+    @Test
+    public void test_removeTagAndViewer() {
+        final ViewerIndex<String> index = new ViewerIndex<>();
+        final UUID first = UUID.randomUUID();
+        final UUID second = UUID.randomUUID();
+
+        index.add(first, "a");
+        index.add(first, "b");
+        index.add(second, "a");
+
+        index.removeTag("a", List.of(first, second));
+
+        Assertions.assertEquals(Set.of("b"), index.getTags(first));
+        Assertions.assertTrue(index.getTags(second).isEmpty());
+
+        Assertions.assertEquals(Set.of("b"), index.removeViewer(first));
+        Assertions.assertEquals(0, index.getViewerCount());
+    }
+
+}
@@ -0,0 +1,37 @@
+package com.mattmx.nametags.stats;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void test_bucketsCoverValue() {
+        for (long value = 0; value < 100_000; value++) {
+            final int index = LatencyHistogram.indexOf(value);
+
+            Assertions.assertTrue(LatencyHistogram.upperBound(index) >= value);
+            Assertions.assertTrue(index == 0 || LatencyHistogram.upperBound(index - 1) < value);
+        }
+    }
+
+    @Test
+    public void test_percentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        Assertions.assertEquals(1000, histogram.getCount());
+        Assertions.assertEquals(1_000_000L, histogram.getMax());
+
+        final long p50 = histogram.getPercentile(0.5);
+        Assertions.assertTrue(p50 >= 500_000L && p50 <= 500_000L * 5 / 4, String.valueOf(p50));
+        Assertions.assertTrue(histogram.getPercentile(0.99) >= 990_000L);
+
+        histogram.reset();
+        Assertions.assertEquals(0L, histogram.getPercentile(0.5));
+    }
+
+}